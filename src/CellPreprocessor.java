@@ -0,0 +1,166 @@
+// This file cleans up the 81 cells of a warped (line-removed) Sudoku grid before OCR.
+// For every cell (in parallel) the border is trimmed off, the largest connected component
+// (the digit) is found, and it is centered and scaled into a fixed-size tile.
+// All 81 tiles live in one preallocated, contiguous buffer that is reused for every grid.
+
+// Import necessary libraries
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class CellPreprocessor {
+
+    // Size of a normalized tile and of the box the digit is scaled into (the rest is padding)
+    static final int TILE_SIZE = 48;
+    static final int DIGIT_SIZE = 32;
+
+    // Fraction of the cell trimmed off each side to get rid of grid line remnants
+    private static final double BORDER_TRIM = 0.1;
+
+    // Smallest component (as a fraction of the trimmed cell) that counts as a digit rather than noise
+    private static final double MIN_DIGIT_AREA = 0.02;
+    private static final double MIN_DIGIT_HEIGHT = 0.3;
+
+    // One preprocessor per thread, so that several grids can be preprocessed at the same time
+    private static final ThreadLocal<CellPreprocessor> threadPreprocessor = ThreadLocal.withInitial(CellPreprocessor::new);
+
+    // All 81 tiles stacked on top of each other (81 * TILE_SIZE rows, TILE_SIZE columns)
+    private final Mat buffer = new Mat(81 * TILE_SIZE, TILE_SIZE, CvType.CV_8UC1);
+
+    // Views into the buffer, one per cell (row by row)
+    private final List<Mat> tiles = new ArrayList<>(81);
+
+    // Whether each cell was found to be empty in the last normalized grid
+    private final boolean[] emptyCells = new boolean[81];
+
+    // Binary (single channel) copy of the grid being normalized
+    private final Mat binary = new Mat();
+
+    public CellPreprocessor() {
+        for (int i = 0; i < 81; i++) {
+            tiles.add(buffer.submat(i * TILE_SIZE, (i + 1) * TILE_SIZE, 0, TILE_SIZE));
+        }
+    }
+
+    // Get the preprocessor belonging to the current thread
+    static CellPreprocessor forCurrentThread() {
+        return threadPreprocessor.get();
+    }
+
+    // Normalize all 81 cells of a line-removed grid (white digits on black) into the tile buffer
+    public void normalize(Mat grid) {
+        // Work on a single channel image; removeLines() leaves a 3 channel copy of a binary image
+        if (grid.channels() == 3) {
+            Imgproc.cvtColor(grid, binary, Imgproc.COLOR_BGR2GRAY);
+        } else {
+            grid.copyTo(binary);
+        }
+        Imgproc.threshold(binary, binary, 127, 255, Imgproc.THRESH_BINARY); // Make sure every pixel is either black or white
+
+        int cellWidth = binary.width() / 9; // Calculate the width of each cell
+        int cellHeight = binary.height() / 9; // Calculate the height of each cell
+
+        // Each cell writes only to its own tile, so all 81 can be processed in parallel
+        IntStream.range(0, 81).parallel().forEach(i -> {
+            int trimX = (int) (cellWidth * BORDER_TRIM);
+            int trimY = (int) (cellHeight * BORDER_TRIM);
+            Rect inner = new Rect(
+                    (i % 9) * cellWidth + trimX, (i / 9) * cellHeight + trimY,
+                    cellWidth - 2 * trimX, cellHeight - 2 * trimY);
+
+            emptyCells[i] = !normalizeCell(binary.submat(inner), tiles.get(i));
+        });
+    }
+
+    // Center and scale the digit of one cell into its tile; returns false if the cell is empty
+    private static boolean normalizeCell(Mat cell, Mat tile) {
+        tile.setTo(new Scalar(0)); // Start from a blank tile
+
+        Mat labels = new Mat();
+        Mat stats = new Mat();
+        Mat centroids = new Mat();
+        int count = Imgproc.connectedComponentsWithStats(cell, labels, stats, centroids);
+
+        // Find the largest component (label 0 is the background) that could be a digit
+        int bestLabel = -1;
+        double bestArea = cell.width() * cell.height() * MIN_DIGIT_AREA;
+
+        for (int label = 1; label < count; label++) {
+            double area = stats.get(label, Imgproc.CC_STAT_AREA)[0];
+            int x = (int) stats.get(label, Imgproc.CC_STAT_LEFT)[0];
+            int width = (int) stats.get(label, Imgproc.CC_STAT_WIDTH)[0];
+            int height = (int) stats.get(label, Imgproc.CC_STAT_HEIGHT)[0];
+
+            // Too short to be a digit (noise or a leftover horizontal line)
+            if (height < cell.height() * MIN_DIGIT_HEIGHT) {
+                continue;
+            }
+
+            // A leftover vertical grid line runs down the side of the cell
+            boolean touchesSide = x == 0 || x + width == cell.width();
+            if (touchesSide && height >= cell.height() - 1) {
+                continue;
+            }
+
+            if (area > bestArea) {
+                bestArea = area;
+                bestLabel = label;
+            }
+        }
+
+        if (bestLabel == -1) {
+            // Release resources
+            labels.release();
+            stats.release();
+            centroids.release();
+            return false;
+        }
+
+        Rect bounds = new Rect(
+                (int) stats.get(bestLabel, Imgproc.CC_STAT_LEFT)[0],
+                (int) stats.get(bestLabel, Imgproc.CC_STAT_TOP)[0],
+                (int) stats.get(bestLabel, Imgproc.CC_STAT_WIDTH)[0],
+                (int) stats.get(bestLabel, Imgproc.CC_STAT_HEIGHT)[0]);
+
+        // Keep only the pixels of the digit itself, dropping any other specks in its bounding box
+        Mat digit = new Mat();
+        Core.inRange(labels.submat(bounds), new Scalar(bestLabel), new Scalar(bestLabel), digit);
+
+        // Scale the digit to fit in DIGIT_SIZE while keeping its aspect ratio
+        double scale = (double) DIGIT_SIZE / Math.max(bounds.width, bounds.height);
+        int scaledWidth = Math.max(1, (int) Math.round(bounds.width * scale));
+        int scaledHeight = Math.max(1, (int) Math.round(bounds.height * scale));
+
+        // Draw the scaled digit into the center of the tile
+        int offsetX = (TILE_SIZE - scaledWidth) / 2;
+        int offsetY = (TILE_SIZE - scaledHeight) / 2;
+        Imgproc.resize(digit, tile.submat(offsetY, offsetY + scaledHeight, offsetX, offsetX + scaledWidth),
+                new Size(scaledWidth, scaledHeight), 0, 0, Imgproc.INTER_AREA);
+
+        // Release resources
+        digit.release();
+        labels.release();
+        stats.release();
+        centroids.release();
+
+        return true;
+    }
+
+    // The normalized tiles of the last grid (row by row)
+    public List<Mat> tiles() {
+        return tiles;
+    }
+
+    // Whether each cell of the last grid was empty (row by row)
+    public boolean[] emptyCells() {
+        return emptyCells;
+    }
+
+    // All tiles in one image, useful for debugging
+    public Mat buffer() {
+        return buffer;
+    }
+}
@@ -0,0 +1,138 @@
+// This file holds what OCR read in one cell: every candidate digit (0 for an empty cell),
+// ordered from most to least likely, each with a confidence between 0 and 1.
+// The candidates come from Tesseract's own alternatives for the cell's symbol; a table of digits that
+// look alike only ranks the digits Tesseract did not consider.
+// OcrCorrector uses the less likely candidates to fix misread cells when a puzzle cannot be solved.
+
+// Import necessary libraries
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CellReading {
+
+    // Digits that printed digits are most often misread as, most likely first
+    private static final int[][] CONFUSIONS = {
+            {8, 6, 9},    // 0 (unused, printed grids have no zeros)
+            {7, 4},       // 1
+            {7, 3},       // 2
+            {8, 5, 9},    // 3
+            {1, 9},       // 4
+            {6, 3, 9},    // 5
+            {5, 8},       // 6
+            {1, 2},       // 7
+            {3, 6, 9},    // 8
+            {8, 4, 5}     // 9
+    };
+
+    final int[] digits;         // Candidate digits, most likely first
+    final double[] confidences; // Confidence of each candidate, in the same order
+
+    CellReading(int[] digits, double[] confidences) {
+        this.digits = digits;
+        this.confidences = confidences;
+    }
+
+    // A cell that the preprocessor already found to be empty
+    static CellReading empty() {
+        return new CellReading(new int[]{0}, new double[]{1});
+    }
+
+    // Build the candidates of a cell from the digits Tesseract considered for it and their confidences (0-100).
+    // Digits it did not consider are ranked after all of them (see fromOcr()), so every digit can still be tried.
+    static CellReading fromChoices(List<Integer> choiceDigits, List<Double> choiceConfidences) {
+        if (choiceDigits.isEmpty()) {
+            return fromOcr(0, 0);
+        }
+
+        // Keep each digit once, with the highest confidence it was given
+        double[] best = new double[10];
+        Arrays.fill(best, -1);
+        for (int i = 0; i < choiceDigits.size(); i++) {
+            int digit = choiceDigits.get(i);
+            best[digit] = Math.max(best[digit], Math.max(0, Math.min(1, choiceConfidences.get(i) / 100)));
+        }
+
+        // Tesseract's candidates, most confident first
+        List<Integer> ranked = new ArrayList<>();
+        for (int digit = 0; digit <= 9; digit++) {
+            if (best[digit] >= 0) {
+                ranked.add(digit);
+            }
+        }
+        ranked.sort((a, b) -> Double.compare(best[b], best[a]));
+
+        int[] digits = new int[10];
+        double[] confidences = new double[10];
+        boolean[] used = new boolean[10];
+        int count = 0;
+
+        for (int digit : ranked) {
+            digits[count] = digit;
+            confidences[count++] = best[digit];
+            used[digit] = true;
+        }
+
+        // The remaining digits, ranked by the table and kept below every candidate Tesseract gave
+        double lowest = best[ranked.get(ranked.size() - 1)];
+        CellReading fallback = fromOcr(ranked.get(0), best[ranked.get(0)] * 100);
+        for (int i = 0; i < fallback.digits.length; i++) {
+            if (!used[fallback.digits[i]]) {
+                digits[count] = fallback.digits[i];
+                confidences[count++] = fallback.confidences[i] * lowest;
+            }
+        }
+
+        return new CellReading(digits, confidences);
+    }
+
+    // Build the candidates of a cell from only the digit OCR read (0 if none) and how confident it was (0-100).
+    // The remaining certainty is shared out between the digits it is most often confused with,
+    // then an empty cell, then every other digit.
+    static CellReading fromOcr(int digit, double ocrConfidence) {
+        double confidence = Math.max(0, Math.min(1, ocrConfidence / 100));
+        double remaining = 1 - confidence;
+
+        int[] digits = new int[10];
+        double[] confidences = new double[10];
+        boolean[] used = new boolean[10];
+        int count = 0;
+
+        // The digit OCR read
+        digits[count] = digit;
+        confidences[count++] = confidence;
+        used[digit] = true;
+
+        // Digits that look alike, each half as likely as the one before
+        double share = remaining / 2;
+        if (digit != 0) {
+            for (int confusion : CONFUSIONS[digit]) {
+                digits[count] = confusion;
+                confidences[count++] = share;
+                used[confusion] = true;
+                share /= 2;
+            }
+
+            // A speck of dirt read as a digit
+            digits[count] = 0;
+            confidences[count++] = share;
+            used[0] = true;
+            share /= 2;
+        }
+
+        // Everything else is equally (un)likely
+        for (int other = 1; other <= 9; other++) {
+            if (!used[other]) {
+                digits[count] = other;
+                confidences[count++] = share / 9;
+            }
+        }
+
+        return new CellReading(digits, confidences);
+    }
+
+    // The most likely digit
+    int best() {
+        return digits[0];
+    }
+}
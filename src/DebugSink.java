@@ -0,0 +1,144 @@
+// This file writes the backend debug images (warped grid, removed lines, solved grid)
+// on a background thread so that encoding JPEG/PNG files never delays a solve.
+// The amount of output is controlled with -Dsudokucv.debug=off|final|all (default: all).
+
+// Import necessary libraries
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DebugSink {
+
+    // Levels of debug output, from nothing at all to every intermediate stage
+    enum Level {
+        OFF,   // No debug images are written
+        FINAL, // Only the solved grid is written
+        ALL    // Every stage of the pipeline is written
+    }
+
+    // Maximum number of images waiting to be encoded; further images are dropped
+    private static final int QUEUE_CAPACITY = 8;
+
+    // Current debug level, read once from the system properties
+    static volatile Level level = parseLevel(System.getProperty("sudokucv.debug", "all"));
+
+    // Queue of pending images to be written by the background thread
+    private static final BlockingQueue<Artifact> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    // Number of images dropped because the queue was full (reported when the application exits)
+    static final AtomicInteger droppedCount = new AtomicInteger();
+
+    // Background thread that encodes and writes the queued images
+    private static Thread writerThread;
+
+    // One or more images waiting to be written (a set of images is queued, and written or dropped, as one)
+    private static class Artifact {
+        final String[] paths;
+        final Mat[] images;
+
+        Artifact(String[] paths, Mat[] images) {
+            this.paths = paths;
+            this.images = images;
+        }
+    }
+
+    // Write an intermediate stage image (only written at the ALL level)
+    public static void stage(String path, Mat image) {
+        submit(Level.ALL, new String[]{path}, new Mat[]{image});
+    }
+
+    // Write a set of intermediate images, eg. the 81 cells of a grid (only written at the ALL level)
+    public static void stageAll(List<String> paths, List<Mat> images) {
+        submit(Level.ALL, paths.toArray(new String[0]), images.toArray(new Mat[0]));
+    }
+
+    // Write the final solved image (written at the FINAL and ALL levels)
+    public static void result(String path, Mat image) {
+        submit(Level.FINAL, new String[]{path}, new Mat[]{image});
+    }
+
+    // Queue images to be written if the current level allows it
+    private static void submit(Level required, String[] paths, Mat[] images) {
+        if (level.compareTo(required) < 0) {
+            return;
+        }
+        for (Mat image : images) {
+            if (image == null || image.empty()) {
+                return;
+            }
+        }
+
+        startWriter();
+
+        // Clone the images since the caller keeps modifying its own copies
+        Mat[] copies = new Mat[images.length];
+        for (int i = 0; i < images.length; i++) {
+            copies[i] = images[i].clone();
+        }
+
+        // Never block the caller; drop the images if the writer has fallen behind
+        if (!queue.offer(new Artifact(paths, copies))) {
+            for (Mat copy : copies) {
+                copy.release();
+            }
+            droppedCount.addAndGet(copies.length);
+        }
+    }
+
+    // Start the background writer the first time an image is submitted
+    private static synchronized void startWriter() {
+        if (writerThread != null) {
+            return;
+        }
+
+        writerThread = new Thread(() -> {
+            while (true) {
+                Artifact artifact;
+                try {
+                    artifact = queue.take(); // Wait for the next image
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                for (int i = 0; i < artifact.paths.length; i++) {
+                    try {
+                        // Encode and write image to file
+                        if (!Imgcodecs.imwrite(artifact.paths[i], artifact.images[i])) {
+                            System.out.println("Debug image " + artifact.paths[i] + " could not be written.");
+                        }
+                    } catch (RuntimeException e) {
+                        // Keep writing the next images even if this one failed (eg. a missing folder)
+                        System.out.println("Debug image " + artifact.paths[i] + " could not be written: " + e.getMessage());
+                    } finally {
+                        artifact.images[i].release(); // Release resources
+                    }
+                }
+            }
+        }, "debug-sink");
+        writerThread.setDaemon(true); // Do not keep the application alive just to write debug images
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+
+        // Report dropped images once at exit, so a writer that fell behind does not go unnoticed
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            int dropped = droppedCount.get();
+            if (dropped > 0) {
+                System.out.println(dropped + " debug image(s) were dropped because the writer fell behind.");
+            }
+        }, "debug-sink-report"));
+    }
+
+    // Convert the system property into a debug level, falling back to ALL
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown debug level \"" + value + "\", using ALL.");
+            return Level.ALL;
+        }
+    }
+}
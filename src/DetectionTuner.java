@@ -0,0 +1,334 @@
+// This file tunes the grid detection thresholds while the camera is running, for the camera and lighting in use.
+// Every frame is scored (a 4-corner grid of a plausible size that stays in place), and the Canny thresholds
+// and polygon epsilon are nudged one at a time, keeping only changes that detect the grid in more frames.
+// Nothing is changed while no grid is in view.
+// Line removal thresholds (adaptive threshold and HoughLinesP) are scored by the background (speculative) solves
+// that run while the camera is held still: after a failed solve the next one tries a changed setting,
+// which is kept only if it solves the grid.
+// Settings that work are saved per camera in data/profiles, so the next session starts from them.
+
+// Import necessary libraries
+import org.opencv.core.Point;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+public class DetectionTuner {
+
+    // Indices of the tuned parameters
+    static final int CANNY_LOW = 0;
+    static final int CANNY_HIGH = 1;
+    static final int POLY_EPSILON = 2;
+    static final int ADAPTIVE_BLOCK = 3;
+    static final int ADAPTIVE_C = 4;
+    static final int HOUGH_THRESHOLD = 5;
+    static final int HOUGH_MIN_LENGTH = 6;
+    static final int HOUGH_MAX_GAP = 7;
+
+    // Parameter names (used in the profile files), defaults, bounds and step sizes
+    private static final String[] NAMES = {
+            "canny.low", "canny.high", "poly.epsilon", "adaptive.block",
+            "adaptive.c", "hough.threshold", "hough.minLength", "hough.maxGap"};
+    private static final double[] DEFAULTS = {150, 200, 0.02, 19, 10, 120, 170, 60};
+    private static final double[] MIN = {30, 60, 0.01, 7, 2, 60, 80, 20};
+    private static final double[] MAX = {250, 400, 0.05, 41, 20, 200, 300, 100};
+    private static final double[] STEP = {20, 25, 0.005, 4, 2, 10, 15, 10};
+
+    // Parameters tuned per frame (detection) and per solve (line removal)
+    private static final int[] FRAME_PARAMS = {CANNY_LOW, CANNY_HIGH, POLY_EPSILON};
+    private static final int[] SOLVE_PARAMS = {ADAPTIVE_C, ADAPTIVE_BLOCK, HOUGH_THRESHOLD, HOUGH_MIN_LENGTH, HOUGH_MAX_GAP};
+
+    // Frames used to score one setting, and the detection rate that counts as "locked on"
+    private static final int WINDOW = 15;
+    private static final double TARGET_RATE = 0.8;
+
+    // A plausible grid covers this fraction of the frame, and moves less than this many pixels per frame
+    private static final double MIN_AREA = 0.05;
+    private static final double MAX_AREA = 0.95;
+    private static final double STABLE_DISTANCE = 10;
+
+    // Folder holding one profile per camera
+    private static final Path PROFILE_DIR = Paths.get("data", "profiles");
+
+    // Current settings; replaced as a whole so that other threads always see a consistent set
+    private static volatile double[] values = DEFAULTS.clone();
+
+    // Whether frames are being scored (only while the camera is running)
+    private static volatile boolean active = false;
+
+    private static Path profilePath;
+    private static boolean hasUnsavedImprovement = false;
+
+    // Frame scoring state
+    private static Point[] lastCorners;
+    private static int windowFrames = 0;
+    private static int windowDetections = 0;
+    private static int windowCandidates = 0; // Frames with a 4-corner grid of a plausible size, still or not
+    private static double bestRate = -1;
+    private static double[] bestValues = DEFAULTS.clone();
+    private static boolean isTrialRunning = false; // Whether a changed setting is being scored
+    private static int trialParam = 0;
+    private static int trialDirection = -1; // Lower thresholds first; poor lighting gives weak edges
+
+    // Solve tuning state
+    private static boolean isSolveTrialRunning = false; // Whether a changed line removal setting is being tried
+    private static int solveParam = 0;
+    private static int solveDirection = 1;
+
+    // Get the current value of a parameter
+    static double get(int param) {
+        return values[param];
+    }
+
+    // Start tuning for a camera, starting from its saved profile if there is one.
+    // Restarting the same camera keeps the settings in memory.
+    static synchronized void start(String cameraName) {
+        Path path = PROFILE_DIR.resolve(cameraName + ".properties");
+        if (!path.equals(profilePath)) {
+            profilePath = path;
+            bestValues = load(path);
+            values = bestValues.clone();
+            isSolveTrialRunning = false;
+        }
+
+        bestRate = -1;
+        isTrialRunning = false;
+        lastCorners = null;
+        windowFrames = 0;
+        windowDetections = 0;
+        windowCandidates = 0;
+        active = true;
+    }
+
+    // Stop tuning and save the settings if they improved
+    static synchronized void stop() {
+        active = false;
+        values = merge(values, bestValues, FRAME_PARAMS); // Never keep a half-tried detection setting
+        saveIfImproved();
+    }
+
+    // Use the default settings, without tuning or profiles (eg. when replaying a clip, so that runs are reproducible)
+    static synchronized void useDefaults() {
+        active = false;
+        profilePath = null;
+        values = DEFAULTS.clone();
+        bestValues = DEFAULTS.clone();
+        isTrialRunning = false;
+        isSolveTrialRunning = false;
+    }
+
+    static boolean isActive() {
+        return active;
+    }
+
+    // Score one frame: the grid's corners (null if no 4-corner grid was found) and its area as a fraction of the frame
+    static synchronized void recordFrame(Point[] corners, double areaFraction) {
+        if (!active) {
+            return;
+        }
+
+        boolean isCandidate = corners != null && areaFraction >= MIN_AREA && areaFraction <= MAX_AREA;
+        boolean detected = isCandidate && (lastCorners == null || isNear(corners, lastCorners));
+        lastCorners = corners == null ? null : corners.clone();
+
+        windowFrames++;
+        if (isCandidate) {
+            windowCandidates++;
+        }
+        if (detected) {
+            windowDetections++;
+        }
+        if (windowFrames < WINDOW) {
+            return;
+        }
+
+        double rate = (double) windowDetections / windowFrames;
+        boolean isGridInView = windowCandidates > 0;
+        windowFrames = 0;
+        windowDetections = 0;
+        windowCandidates = 0;
+
+        if (isTrialRunning) {
+            if (rate > bestRate) {
+                // The tried setting detects the grid more often: keep it and keep going that way
+                hasUnsavedImprovement = true;
+                bestRate = rate;
+                bestValues = merge(bestValues, values, FRAME_PARAMS);
+            } else {
+                // No better (a tie proves nothing): go back, and try something else next time
+                values = merge(values, bestValues, FRAME_PARAMS);
+                nextTrial();
+            }
+            isTrialRunning = false;
+        } else {
+            bestRate = rate; // Score of the current setting, which may have changed with the lighting
+        }
+
+        if (bestRate >= TARGET_RATE) {
+            saveIfImproved(); // Locked on; remember these settings for next time
+            return;
+        }
+
+        // Nothing that looks like a grid was seen, so there is nothing to tune against (eg. no puzzle in view)
+        if (!isGridInView) {
+            return;
+        }
+
+        // Not detecting reliably: try a small change to one parameter (skipping any that are at their bound)
+        for (int tries = 0; tries < 2 * FRAME_PARAMS.length; tries++) {
+            double[] next = step(bestValues, FRAME_PARAMS[trialParam], trialDirection);
+            if (next[FRAME_PARAMS[trialParam]] != bestValues[FRAME_PARAMS[trialParam]]) {
+                values = merge(values, next, FRAME_PARAMS);
+                isTrialRunning = true;
+                return;
+            }
+            nextTrial();
+        }
+    }
+
+    // Move on to the other direction for the current parameter, or to the next parameter
+    private static void nextTrial() {
+        trialDirection = -trialDirection;
+        if (trialDirection == -1) {
+            trialParam = (trialParam + 1) % FRAME_PARAMS.length;
+        }
+    }
+
+    // Record whether a grid was solved, by a background solve while the camera is running or by the final capture.
+    // A changed line removal setting is kept once it solves a grid. While solves keep failing, the setting being
+    // tried is moved further (up to its bound) for the next solve, then dropped in favour of the next parameter
+    // or direction; the best settings are never changed by a failure.
+    static synchronized void recordSolve(boolean isSolved) {
+        if (profilePath == null) {
+            return; // Not a camera session
+        }
+
+        if (isSolved) {
+            if (isSolveTrialRunning) {
+                // Solved with the tried setting after the previous settings failed: keep it
+                bestValues = merge(bestValues, values, SOLVE_PARAMS);
+                isSolveTrialRunning = false;
+                hasUnsavedImprovement = true;
+                saveIfImproved();
+            }
+            return;
+        }
+
+        if (isSolveTrialRunning) {
+            // The tried setting did not help: try a bigger change in the same direction
+            int param = SOLVE_PARAMS[solveParam];
+            double[] further = step(values, param, solveDirection);
+            if (further[param] != values[param]) {
+                values = merge(values, further, SOLVE_PARAMS);
+                return;
+            }
+
+            // Out of range: go back to the best settings
+            values = merge(values, bestValues, SOLVE_PARAMS);
+            isSolveTrialRunning = false;
+            nextSolveTrial();
+        }
+
+        // Try the next line removal setting, going through each parameter in both directions
+        for (int tries = 0; tries < 2 * SOLVE_PARAMS.length; tries++) {
+            int param = SOLVE_PARAMS[solveParam];
+            double[] next = step(bestValues, param, solveDirection);
+            if (next[param] != bestValues[param]) {
+                values = merge(values, next, SOLVE_PARAMS);
+                isSolveTrialRunning = true;
+                return;
+            }
+            nextSolveTrial();
+        }
+    }
+
+    // Move on to the other direction for the current line removal parameter, or to the next parameter
+    private static void nextSolveTrial() {
+        solveDirection = -solveDirection;
+        if (solveDirection == 1) {
+            solveParam = (solveParam + 1) % SOLVE_PARAMS.length;
+        }
+    }
+
+    // Copy of the settings with the given parameters taken from other settings
+    private static double[] merge(double[] into, double[] from, int[] params) {
+        double[] merged = into.clone();
+        for (int param : params) {
+            merged[param] = from[param];
+        }
+        return merged;
+    }
+
+    // Copy of the settings with one parameter moved a step, kept within its bounds
+    private static double[] step(double[] from, int param, int direction) {
+        double[] next = from.clone();
+        next[param] = Math.max(MIN[param], Math.min(MAX[param], from[param] + direction * STEP[param]));
+
+        // Keep the settings valid: Canny's high threshold above the low one, and an odd threshold block size
+        next[CANNY_HIGH] = Math.max(next[CANNY_HIGH], next[CANNY_LOW] + STEP[CANNY_HIGH]);
+        next[ADAPTIVE_BLOCK] = ((int) next[ADAPTIVE_BLOCK]) | 1;
+
+        return next;
+    }
+
+    // Whether every corner is within STABLE_DISTANCE of the matching corner in the other grid
+    private static boolean isNear(Point[] a, Point[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Math.hypot(a[i].x - b[i].x, a[i].y - b[i].y) > STABLE_DISTANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Read a camera profile, using the defaults for anything missing or out of bounds
+    private static double[] load(Path path) {
+        double[] loaded = DEFAULTS.clone();
+        if (!Files.exists(path)) {
+            return loaded;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+
+            for (int i = 0; i < NAMES.length; i++) {
+                String value = properties.getProperty(NAMES[i]);
+                if (value != null) {
+                    loaded[i] = Math.max(MIN[i], Math.min(MAX[i], Double.parseDouble(value)));
+                }
+            }
+            System.out.println("Loaded detection profile " + path);
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Detection profile " + path + " could not be read; using defaults.");
+        }
+        return loaded;
+    }
+
+    // Write the best settings to the camera's profile if they changed since the last save
+    private static void saveIfImproved() {
+        if (!hasUnsavedImprovement || profilePath == null) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        for (int i = 0; i < NAMES.length; i++) {
+            properties.setProperty(NAMES[i], String.valueOf(bestValues[i]));
+        }
+
+        try {
+            Files.createDirectories(profilePath.getParent());
+            try (OutputStream out = Files.newOutputStream(profilePath)) {
+                properties.store(out, "SudokuCV detection settings");
+            }
+            hasUnsavedImprovement = false;
+        } catch (IOException e) {
+            System.out.println("Detection profile " + profilePath + " could not be saved.");
+        }
+    }
+}
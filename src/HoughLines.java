@@ -6,11 +6,15 @@
 // Import necessary libraries
 import org.opencv.core.*;
 import org.opencv.core.Point;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.imgproc.Moments;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Documentation for Computer Vision is sourced by OpenCV:
@@ -20,6 +24,20 @@ import java.util.ArrayList;
 // "Main" Class to be run
 class HoughLinesRun {
     static Point[] sortedPoints = new Point[4]; // Array to hold sorted corner points of the Sudoku grid
+    static boolean isQuadFound = false; // Whether the last frame (or call to mapPoints()) found 4 new corner points
+
+    // Multi-grid filters: smallest grid (as a fraction of the page) and largest width/height ratio
+    static final double MIN_GRID_AREA_FRACTION = 0.01;
+    static final double MAX_GRID_ASPECT = 1.4;
+
+    // Line removal mode: Hough transform (default) or morphology (-Dsudokucv.lines=morphology)
+    static final boolean MORPHOLOGY_LINE_REMOVAL = "morphology".equalsIgnoreCase(System.getProperty("sudokucv.lines"));
+
+    // Structuring elements for morphology line removal, cached by length (rounded to KERNEL_LENGTH_STEP)
+    private static final int KERNEL_LENGTH_STEP = 4;
+    private static final Map<Integer, Mat> horizontalKernels = new ConcurrentHashMap<>();
+    private static final Map<Integer, Mat> verticalKernels = new ConcurrentHashMap<>();
+    private static Mat squareKernel;
 
     // Main method to process the frame and detect the Sudoku grid
     public static Mat run(Mat frame, String... args) {
@@ -47,7 +65,7 @@ class HoughLinesRun {
         Core.bitwise_not(src, dst);
 
         // Perform edge detection using the Canny algorithm
-        Imgproc.Canny(dst, dst, 150, 200, 3, false);
+        Imgproc.Canny(dst, dst, DetectionTuner.get(DetectionTuner.CANNY_LOW), DetectionTuner.get(DetectionTuner.CANNY_HIGH), 3, false);
 
         // List to hold the contours of each cell in the Sudoku grid
         ArrayList<MatOfPoint> cellContours = new ArrayList<>();
@@ -73,6 +91,8 @@ class HoughLinesRun {
 
         // If no contours are found, return the original frame
         if (cellContours.isEmpty()) {
+            isQuadFound = false;
+            DetectionTuner.recordFrame(null, 0); // Score the frame for detection tuning
             return frame;
         }
 
@@ -82,6 +102,9 @@ class HoughLinesRun {
         // Get the corner points of the Sudoku grid
         final Point[] points = mapPoints(cellContours.get(maxIndex), src);
 
+        // Score the frame for detection tuning: a fresh 4-corner grid, and how much of the frame it covers
+        DetectionTuner.recordFrame(foundCorners(), maxArea / (frame.width() * (double) frame.height()));
+
         // Draw markers on the corner points of the Sudoku grid
         for (final Point point : points) {
             if (point == null) {
@@ -93,6 +116,12 @@ class HoughLinesRun {
         return src;
     }
 
+    // The corners found in the last frame given to run(), or null if that frame had no 4-corner grid.
+    // sortedPoints alone keeps the corners of the last frame that had one.
+    static Point[] foundCorners() {
+        return isQuadFound && !Arrays.asList(sortedPoints).contains(null) ? sortedPoints : null;
+    }
+
     // Approximate the polygonal curves of the contour to a more simplified version
     private static MatOfPoint2f approxPoly(MatOfPoint polygon) {
         final MatOfPoint2f src = new MatOfPoint2f();
@@ -101,7 +130,7 @@ class HoughLinesRun {
         polygon.convertTo(src, CvType.CV_32FC2);
 
         // Approximate the polygonal curves
-        Imgproc.approxPolyDP(src, dst, 0.02 * Imgproc.arcLength(src, true), true);
+        Imgproc.approxPolyDP(src, dst, DetectionTuner.get(DetectionTuner.POLY_EPSILON) * Imgproc.arcLength(src, true), true);
 
         return dst;
     }
@@ -111,10 +140,16 @@ class HoughLinesRun {
         MatOfPoint2f approxPoly = approxPoly(polygon);
 
         // If the approximated polygon does not have 4 points, return the existing sorted points
-        if (!approxPoly.size().equals(new Size(1, 4))) {
+        isQuadFound = approxPoly.size().equals(new Size(1, 4));
+        if (!isQuadFound) {
             return sortedPoints;
         }
 
+        return sortCorners(approxPoly, sortedPoints);
+    }
+
+    // Sort the 4 points of a quadrilateral into top-left, top-right, bottom-left, bottom-right order
+    static Point[] sortCorners(MatOfPoint2f approxPoly, Point[] sortedPoints) {
         // Calculate the center of mass of the approximated polygon
         final Moments moment = Imgproc.moments(approxPoly);
         final int centerX = (int) (moment.get_m10() / moment.get_m00());
@@ -145,62 +180,184 @@ class HoughLinesRun {
         return sortedPoints;
     }
 
+    // Find every Sudoku grid on the page (multi-grid mode), largest first.
+    // Each grid is returned as its 4 sorted corner points.
+    static List<Point[]> findGrids(Mat frame) {
+        Mat gray = new Mat();
+        Mat edges = new Mat();
+
+        // Same edge detection as run(): grayscale, invert, Canny
+        Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+        Core.bitwise_not(gray, edges);
+        Imgproc.Canny(edges, edges, DetectionTuner.get(DetectionTuner.CANNY_LOW), DetectionTuner.get(DetectionTuner.CANNY_HIGH), 3, false);
+
+        // Use every contour (not just the outer ones) so grids inside a page border are still found
+        ArrayList<MatOfPoint> contours = new ArrayList<>();
+        Imgproc.findContours(edges, contours, new Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+
+        // Check the largest contours first so that the 3x3 boxes inside a grid are rejected later on
+        contours.sort(Comparator.comparingDouble(contour -> -Imgproc.contourArea(contour)));
+
+        double minArea = frame.width() * frame.height() * MIN_GRID_AREA_FRACTION;
+        List<Point[]> grids = new ArrayList<>();
+        List<MatOfPoint2f> accepted = new ArrayList<>();
+
+        for (MatOfPoint contour : contours) {
+            // Size filter: the contours are sorted, so nothing after this can be big enough
+            if (Imgproc.contourArea(contour) < minArea) {
+                break;
+            }
+
+            // Shape filter: the contour must simplify to a convex quadrilateral
+            MatOfPoint2f quad = approxPoly(contour);
+            if (!quad.size().equals(new Size(1, 4)) || !Imgproc.isContourConvex(new MatOfPoint(quad.toArray()))) {
+                continue;
+            }
+
+            // Aspect filter: a Sudoku grid is (roughly) square even when viewed at an angle
+            Rect bounds = Imgproc.boundingRect(quad);
+            double aspect = (double) bounds.width / bounds.height;
+            if (aspect < 1 / MAX_GRID_ASPECT || aspect > MAX_GRID_ASPECT) {
+                continue;
+            }
+
+            // Skip contours that lie inside a grid that was already found (its boxes, cells or digits)
+            Point center = new Point(bounds.x + bounds.width / 2.0, bounds.y + bounds.height / 2.0);
+            boolean nested = false;
+            for (MatOfPoint2f grid : accepted) {
+                if (Imgproc.pointPolygonTest(grid, center, false) >= 0) {
+                    nested = true;
+                    break;
+                }
+            }
+            if (nested) {
+                continue;
+            }
+
+            Point[] corners = sortCorners(quad, new Point[4]);
+            if (Arrays.asList(corners).contains(null)) {
+                continue; // Corners could not be told apart (eg. the quad is a thin sliver)
+            }
+
+            accepted.add(quad);
+            grids.add(corners);
+        }
+
+        // Release resources
+        gray.release();
+        edges.release();
+
+        return grids;
+    }
+
+    // Warp the grid outlined by the sorted corner points into a flat, top-down image
+    static Mat warp(Mat img, Point[] corners) {
+        Mat warpedMat = new Mat();
+
+        // Calculate dimensions
+        double x = corners[1].x - corners[0].x;
+        double y = corners[2].y - corners[0].y;
+
+        // Define destination points
+        MatOfPoint2f cdst = new MatOfPoint2f(
+                new Point(0, 0),
+                new Point(x, 0),
+                new Point(0, y),
+                new Point(x, y)
+        );
+
+        MatOfPoint2f src = new MatOfPoint2f(corners); // Source points
+        Imgproc.warpPerspective(img, warpedMat, Imgproc.getPerspectiveTransform(src, cdst), new Size(x, y)); // Warp image
+
+        return warpedMat; // Return warped image
+    }
+
     // Remove lines from the Sudoku grid to isolate individual cells
     static void removeLines(final Mat src) {
-        final Mat lines = new Mat();
-
         // Convert the image to grayscale
         Imgproc.cvtColor(src, src, Imgproc.COLOR_BGR2GRAY);
 
         // Apply adaptive thresholding to get binary image
-        Imgproc.adaptiveThreshold(src, src, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY, 19, 10);
+        Imgproc.adaptiveThreshold(src, src, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY,
+                (int) DetectionTuner.get(DetectionTuner.ADAPTIVE_BLOCK), DetectionTuner.get(DetectionTuner.ADAPTIVE_C));
 
         // Invert the binary image
         Core.bitwise_not(src, src);
 
+        if (MORPHOLOGY_LINE_REMOVAL) {
+            removeLinesMorphology(src);
+        } else {
+            removeLinesHough(src);
+        }
+
+        // Convert the image back to BGR
+        Imgproc.cvtColor(src, src, Imgproc.COLOR_GRAY2BGR);
+    }
+
+    // Find lines with a Hough transform and paint over each of them
+    private static void removeLinesHough(final Mat src) {
+        final Mat lines = new Mat();
+
         // Detect lines using Hough transform
-        Imgproc.HoughLinesP(src, lines, 1, Math.PI / 180, 120, 170, 60);
+        Imgproc.HoughLinesP(src, lines, 1, Math.PI / 180, (int) DetectionTuner.get(DetectionTuner.HOUGH_THRESHOLD),
+                DetectionTuner.get(DetectionTuner.HOUGH_MIN_LENGTH), DetectionTuner.get(DetectionTuner.HOUGH_MAX_GAP));
 
-        // Draw red lines over detected lines to remove them
+        // Draw black (background) lines over detected lines to remove them
         for (int i = 0; i < lines.rows(); i++) {
             final double[] lineInfo = lines.get(i, 0);
 
             Imgproc.line(src,
                     new Point(lineInfo[0], lineInfo[1]), new Point(lineInfo[2], lineInfo[3]),
-                    new Scalar(0, 0, 255),
+                    new Scalar(0),
                     4 // You can adjust the thickness of the line if needed
             );
         }
 
-        // Convert the image back to BGR
-        Imgproc.cvtColor(src, src, Imgproc.COLOR_GRAY2BGR);
-
         // Release resources
         lines.release();
     }
 
-    // Output each cell of the Sudoku grid as individual images
-    static void outputCells(Mat src) {
-        int cellWidth = src.width() / 9; // Calculate the width of each cell
-        int cellHeight = src.height() / 9; // Calculate the height of each cell
-        Size cellSize = new Size(cellWidth, cellHeight); // Define the size of each cell
+    // Keep only long horizontal and vertical strokes with a morphological opening, then subtract them.
+    // The cost does not depend on how many lines there are.
+    private static void removeLinesMorphology(final Mat src) {
+        final Mat horizontal = new Mat();
+        final Mat vertical = new Mat();
 
-        // Loop through each cell in the 9x9 Sudoku grid
-        for (int row = 0; row < 9; row++) {
-            for (int col = 0; col < 9; col++) {
-                double xPos = cellWidth * col; // X position of the cell
-                double yPos = cellHeight * row; // Y position of the cell
+        // Strokes longer than 3/4 of a cell are grid lines; digit strokes are shorter than that,
+        // and a kernel shorter than a full cell still fits inside slightly tilted lines
+        int cellLength = Math.max(src.width(), src.height()) / 9 * 3 / 4;
 
-                Rect cellRect = new Rect(new Point(xPos, yPos), cellSize); // Define the rectangle for the cell
+        // Opening erases every white shape that the line-shaped kernel does not fit inside
+        Imgproc.morphologyEx(src, horizontal, Imgproc.MORPH_OPEN, lineKernel(cellLength, true));
+        Imgproc.morphologyEx(src, vertical, Imgproc.MORPH_OPEN, lineKernel(cellLength, false));
 
-                Mat cell = new Mat(src, cellRect); // Extract the cell from the source image
+        // Combine both directions and thicken them slightly to cover anti-aliased line edges
+        Core.bitwise_or(horizontal, vertical, horizontal);
+        Imgproc.dilate(horizontal, horizontal, squareKernel());
 
-                int cellCount = row * 9 + col + 1; // Calculate the cell number
+        // Remove all lines in one pass
+        Core.subtract(src, horizontal, src);
 
-                // Save the cell image to a file
-                Imgcodecs.imwrite("data/cells/cell_" + cellCount + ".png", cell);
-            }
+        // Release resources
+        horizontal.release();
+        vertical.release();
+    }
+
+    // Get a (cached) 1-pixel thick line kernel; lengths are rounded so similar grid sizes share a kernel
+    private static Mat lineKernel(int length, boolean isHorizontal) {
+        int roundedLength = Math.max(3, (length / KERNEL_LENGTH_STEP) * KERNEL_LENGTH_STEP);
+        Map<Integer, Mat> cache = isHorizontal ? horizontalKernels : verticalKernels;
+
+        return cache.computeIfAbsent(roundedLength, key -> Imgproc.getStructuringElement(Imgproc.MORPH_RECT,
+                isHorizontal ? new Size(key, 1) : new Size(1, key)));
+    }
+
+    // Get the (cached) 3x3 kernel used to thicken the detected lines
+    private static synchronized Mat squareKernel() {
+        if (squareKernel == null) {
+            squareKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(3, 3));
         }
+        return squareKernel;
     }
 }
 
@@ -0,0 +1,151 @@
+// This file solves every Sudoku grid found on one image (eg. a newspaper page or a book spread).
+// Each grid is warped on its own, then the OCR and solving stages for all grids run concurrently.
+// Finally, the solved numbers of every grid are warped back and drawn onto the original page.
+
+// Import necessary libraries
+import org.opencv.core.*;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class MultiGridSolver {
+
+    // Multi-grid mode is used for chosen images and PDFs when -Dsudokucv.multigrid=true
+    static final boolean ENABLED = Boolean.getBoolean("sudokucv.multigrid");
+
+    // Worker threads shared by every page; one per processor since OCR and solving are CPU bound
+    private static final ExecutorService workers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "grid-solver");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // The outcome of solving one page
+    static class PageResult {
+        final Mat page;       // The page with the solutions of every grid drawn on it
+        final int gridCount;  // Number of grids found on the page
+        final int solvedCount; // Number of grids that were fully solved
+        final List<int[][]> solvedGrids; // Solved grid of every grid found, in the order they were found (all 0 if it failed)
+
+        PageResult(Mat page, int gridCount, int solvedCount, List<int[][]> solvedGrids) {
+            this.page = page;
+            this.gridCount = gridCount;
+            this.solvedCount = solvedCount;
+            this.solvedGrids = solvedGrids;
+        }
+    }
+
+    // The outcome of solving one grid, still in the warped (top-down) view
+    private static class GridResult {
+        final Point[] corners;
+        final Mat overlay; // Solved numbers drawn on a black image the size of the warped grid
+        final int[][] solved;
+        final boolean isSolved;
+
+        GridResult(Point[] corners, Mat overlay, int[][] solved, boolean isSolved) {
+            this.corners = corners;
+            this.overlay = overlay;
+            this.solved = solved;
+            this.isSolved = isSolved;
+        }
+    }
+
+    // Find, solve and draw every grid on the page. The page itself is not modified.
+    public static PageResult solvePage(Mat page) {
+        List<Point[]> grids = HoughLinesRun.findGrids(page);
+
+        // Solve all grids at the same time
+        List<Future<GridResult>> futures = new ArrayList<>();
+        for (Point[] corners : grids) {
+            futures.add(workers.submit(() -> solveGrid(page, corners)));
+        }
+
+        // Composite the results back onto a copy of the page, one grid at a time
+        Mat output = page.clone();
+        int solvedCount = 0;
+        List<int[][]> solvedGrids = new ArrayList<>();
+
+        for (Future<GridResult> future : futures) {
+            try {
+                GridResult result = future.get();
+                drawOnPage(output, result);
+                solvedGrids.add(result.solved);
+
+                if (result.isSolved) {
+                    solvedCount++;
+                }
+                result.overlay.release(); // Release resources
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                solvedGrids.add(new int[9][9]); // Keep the grids numbered in the order they were found
+            }
+        }
+
+        System.out.println("Solved " + solvedCount + " of " + grids.size() + " grids.");
+
+        return new PageResult(output, grids.size(), solvedCount, solvedGrids);
+    }
+
+    // Warp, clean, read and solve a single grid (runs on a worker thread)
+    private static GridResult solveGrid(Mat page, Point[] corners) {
+        Mat warpedMat = HoughLinesRun.warp(page, corners); // Warp input image
+        SudokuSolver.Solution solution = readAndSolve(warpedMat);
+
+        // Draw only the solved numbers, so they can be laid over the page afterwards
+        Mat overlay = Mat.zeros(warpedMat.size(), page.type());
+        boolean isSolved = SudokuSolver.drawSolutions(overlay, solution.solved, solution.givens);
+
+        warpedMat.release(); // Release resources
+
+        return new GridResult(corners, overlay, solution.solved, isSolved);
+    }
+
+    // Remove the lines of a warped grid, read its cells and solve it, without using any shared state.
+    // The warped image is modified. Stops early (leaving cells unsolved) if the thread is interrupted.
+    static SudokuSolver.Solution readAndSolve(Mat warpedMat) {
+        HoughLinesRun.removeLines(warpedMat); // Remove lines from image
+
+        // Read the normalized cells, then solve the puzzle (fixing misread cells if needed)
+        CellPreprocessor cells = CellPreprocessor.forCurrentThread();
+        cells.normalize(warpedMat);
+
+        return OcrCorrector.solve(SudokuSolver.readCells(cells.tiles(), cells.emptyCells()));
+    }
+
+    // Warp the solved numbers of a grid back into the page's perspective and draw them on the page
+    private static void drawOnPage(Mat page, GridResult result) {
+        double x = result.overlay.width();
+        double y = result.overlay.height();
+
+        MatOfPoint2f warpedCorners = new MatOfPoint2f(
+                new Point(0, 0),
+                new Point(x, 0),
+                new Point(0, y),
+                new Point(x, y)
+        );
+        Mat transform = Imgproc.getPerspectiveTransform(warpedCorners, new MatOfPoint2f(result.corners));
+
+        // Warp the overlay back onto the page, then copy over only the pixels that were drawn on
+        Mat unwarped = new Mat();
+        Mat mask = new Mat();
+        Imgproc.warpPerspective(result.overlay, unwarped, transform, page.size());
+        Imgproc.cvtColor(unwarped, mask, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.threshold(mask, mask, 0, 255, Imgproc.THRESH_BINARY);
+        unwarped.copyTo(page, mask);
+
+        // Release resources
+        unwarped.release();
+        mask.release();
+        transform.release();
+    }
+}
@@ -0,0 +1,252 @@
+// This file solves a puzzle from its OCR readings, fixing misread cells along the way.
+// If the grid as read is proven to have no solution, the smallest set of given numbers that conflict with
+// each other is found, and those cells are retried with their next most likely readings (see CellReading).
+// A corrected grid is only accepted if it has exactly one solution, as every printed puzzle does.
+// This replaces a failed capture (and a long, fruitless search) with a quick local correction.
+
+// Import necessary libraries
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class OcrCorrector {
+
+    // Search steps allowed for the grid as read, and for each corrected grid
+    static final long FIRST_NODE_LIMIT = 500_000;
+    static final long RETRY_NODE_LIMIT = 200_000;
+
+    // Search steps allowed when checking whether a subset of the givens still has no solution.
+    // Kept small: running out only means a cell stays a suspect.
+    static final long CORE_NODE_LIMIT = 20_000;
+
+    // Most corrected grids tried before giving up
+    static final int MAX_ATTEMPTS = 40;
+
+    // How a solve attempt ended
+    private enum Outcome {
+        SOLVED,
+        UNSOLVABLE, // Proven to have no solution
+        GAVE_UP     // Hit the step limit (or was cancelled) before finding out
+    }
+
+    // A replacement reading for one cell
+    private static class Substitution {
+        final int cell;
+        final int digit;
+        final double confidence;
+
+        Substitution(int cell, int digit, double confidence) {
+            this.cell = cell;
+            this.digit = digit;
+            this.confidence = confidence;
+        }
+    }
+
+    // Solve the puzzle read from the cells (row by row), correcting misread cells if needed
+    public static SudokuSolver.Solution solve(CellReading[] readings) {
+        int[][] givens = new int[9][9];
+        for (int i = 0; i < 81; i++) {
+            givens[i / 9][i % 9] = readings[i].best();
+        }
+
+        int[][] solved = copy(givens);
+        Outcome outcome = trySolve(solved, FIRST_NODE_LIMIT);
+
+        if (outcome == Outcome.SOLVED || Thread.currentThread().isInterrupted()) {
+            return new SudokuSolver.Solution(givens, solved);
+        }
+
+        // Nothing shows the grid was misread (no repeated numbers, no proof that it has no solution):
+        // it may just be a hard puzzle, so finish solving it as read
+        if (outcome == Outcome.GAVE_UP) {
+            solved = copy(givens);
+            trySolve(solved, Long.MAX_VALUE);
+            return new SudokuSolver.Solution(givens, solved);
+        }
+
+        // Retry the cells that conflict, most likely replacement readings first
+        List<Integer> suspects = conflictingCells(givens, readings);
+        System.out.println("Puzzle not solved as read; retrying cells " + suspects);
+
+        SudokuSolver.Solution corrected = retry(givens, readings, suspects);
+        if (corrected != null) {
+            return corrected;
+        }
+
+        return new SudokuSolver.Solution(givens, copy(givens)); // Nothing worked
+    }
+
+    // Try replacing one suspect cell at a time, then two at a time, with its other readings
+    private static SudokuSolver.Solution retry(int[][] givens, CellReading[] readings, List<Integer> suspects) {
+        List<Substitution> substitutions = new ArrayList<>();
+        for (int cell : suspects) {
+            for (int i = 1; i < readings[cell].digits.length; i++) {
+                substitutions.add(new Substitution(cell, readings[cell].digits[i], readings[cell].confidences[i]));
+            }
+        }
+        substitutions.sort(Comparator.comparingDouble((Substitution sub) -> sub.confidence).reversed());
+
+        int attempts = 0;
+
+        // One misread cell
+        for (Substitution sub : substitutions) {
+            if (attempts >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+
+            int[][] candidate = copy(givens);
+            candidate[sub.cell / 9][sub.cell % 9] = sub.digit;
+
+            if (!hasDuplicates(candidate)) {
+                attempts++;
+                SudokuSolver.Solution solution = solveCandidate(candidate, sub);
+                if (solution != null) {
+                    return solution;
+                }
+            }
+        }
+
+        // Two misread cells, using only the most likely replacements
+        int pairLimit = Math.min(substitutions.size(), 10);
+        for (int a = 0; a < pairLimit; a++) {
+            for (int b = a + 1; b < pairLimit; b++) {
+                Substitution first = substitutions.get(a);
+                Substitution second = substitutions.get(b);
+
+                if (first.cell == second.cell) {
+                    continue;
+                }
+                if (attempts >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+
+                int[][] candidate = copy(givens);
+                candidate[first.cell / 9][first.cell % 9] = first.digit;
+                candidate[second.cell / 9][second.cell % 9] = second.digit;
+
+                if (!hasDuplicates(candidate)) {
+                    attempts++;
+                    SudokuSolver.Solution solution = solveCandidate(candidate, first, second);
+                    if (solution != null) {
+                        return solution;
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    // Solve a corrected grid; returns null if it still cannot be solved, or if it has more than one solution
+    private static SudokuSolver.Solution solveCandidate(int[][] candidate, Substitution... subs) {
+        int[][] solved = copy(candidate);
+        if (trySolve(solved, RETRY_NODE_LIMIT) != Outcome.SOLVED) {
+            return null;
+        }
+
+        // A printed puzzle has exactly one solution; a correction that allows several is a guess, not a fix
+        int[][] check = copy(candidate);
+        SudokuSolver checker = new SudokuSolver(check);
+        checker.nodeLimit = RETRY_NODE_LIMIT;
+        if (checker.countSolutions(check, 2) != 1) {
+            return null;
+        }
+
+        for (Substitution sub : subs) {
+            System.out.println("Corrected cell " + sub.cell + " to " + sub.digit);
+        }
+        return new SudokuSolver.Solution(candidate, solved);
+    }
+
+    // Find the given cells responsible for the puzzle having no solution
+    static List<Integer> conflictingCells(int[][] givens, CellReading[] readings) {
+        // A number that appears twice in a row, column or box is the most obvious misread
+        List<Integer> duplicates = duplicateCells(givens);
+        if (!duplicates.isEmpty()) {
+            return duplicates;
+        }
+
+        // Otherwise, shrink the givens to a minimal set that still has no solution.
+        // The most confident cells are dropped first, so the least confident ones tend to remain.
+        List<Integer> core = new ArrayList<>();
+        for (int i = 0; i < 81; i++) {
+            if (givens[i / 9][i % 9] != 0) {
+                core.add(i);
+            }
+        }
+        core.sort(Comparator.comparingDouble((Integer cell) -> readings[cell].confidences[0]).reversed());
+
+        int[][] subset = copy(givens);
+        for (Integer cell : new ArrayList<>(core)) {
+            int digit = subset[cell / 9][cell % 9];
+            subset[cell / 9][cell % 9] = 0;
+
+            if (trySolve(copy(subset), CORE_NODE_LIMIT) == Outcome.UNSOLVABLE) {
+                core.remove(cell); // Still no solution without it, so it is not part of the conflict
+            } else {
+                subset[cell / 9][cell % 9] = digit; // Needed for the conflict; put it back
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+
+        return core;
+    }
+
+    // Cells whose number also appears elsewhere in their row, column or box
+    private static List<Integer> duplicateCells(int[][] grid) {
+        List<Integer> cells = new ArrayList<>();
+
+        for (int i = 0; i < 81; i++) {
+            int row = i / 9;
+            int column = i % 9;
+            int digit = grid[row][column];
+
+            if (digit == 0) {
+                continue;
+            }
+
+            // Check the rest of the grid with this cell emptied
+            grid[row][column] = 0;
+            if (!new SudokuSolver(grid).isPossible(row, column, digit)) {
+                cells.add(i);
+            }
+            grid[row][column] = digit;
+        }
+
+        return cells;
+    }
+
+    // Whether any number appears twice in a row, column or box
+    private static boolean hasDuplicates(int[][] grid) {
+        return !duplicateCells(grid).isEmpty();
+    }
+
+    // Solve the grid in place within the step limit
+    private static Outcome trySolve(int[][] grid, long nodeLimit) {
+        // answerPuzzle() only checks the numbers it places, so conflicting givens must be caught first
+        if (hasDuplicates(grid)) {
+            return Outcome.UNSOLVABLE;
+        }
+
+        SudokuSolver solver = new SudokuSolver(grid);
+        solver.nodeLimit = nodeLimit;
+
+        if (solver.answerPuzzle(grid)) {
+            return Outcome.SOLVED;
+        }
+        return solver.nodeCount >= nodeLimit || Thread.currentThread().isInterrupted() ? Outcome.GAVE_UP : Outcome.UNSOLVABLE;
+    }
+
+    // Copy a 9x9 grid
+    private static int[][] copy(int[][] grid) {
+        int[][] copy = new int[9][];
+        for (int row = 0; row < 9; row++) {
+            copy[row] = Arrays.copyOf(grid[row], 9);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,178 @@
+// This file reads Sudoku puzzle books stored as PDF files.
+// Pages are rendered one at a time straight into OpenCV Mats (no temporary image files),
+// and the next page is rendered on a background thread while the current one is being solved.
+// Only a couple of pages are ever held in memory, so books with hundreds of pages are fine.
+
+// Import necessary libraries
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class PdfPuzzleBook {
+
+    // Resolution used to render pages; 150 DPI keeps printed grids sharp without huge images
+    static final float DEFAULT_DPI = parseDpi(System.getProperty("sudokucv.pdf.dpi", "150"));
+
+    // Number of rendered pages allowed to wait for the solver (bounds memory use)
+    private static final int PAGES_AHEAD = 1;
+
+    // Callback run for every rendered page, in page order
+    interface PageHandler {
+        void handle(Mat page, int pageNumber, int pageCount);
+    }
+
+    // A rendered page (or the end-of-book marker, or a render failure) passed from the render thread to the solver
+    private static class Page {
+        final Mat image;
+        final int number;
+        final Throwable error;
+
+        Page(Mat image, int number, Throwable error) {
+            this.image = image;
+            this.number = number;
+            this.error = error;
+        }
+    }
+
+    // Render every page of the PDF and pass it to the handler, rendering one page ahead
+    public static void forEachPage(File pdfFile, float dpi, PageHandler handler) throws IOException {
+        // Keep the parser's scratch buffers in memory instead of temporary files
+        try (PDDocument document = PDDocument.load(pdfFile, MemoryUsageSetting.setupMainMemoryOnly())) {
+            document.setResourceCache(null); // Don't cache fonts/images across pages, so memory stays bounded
+
+            final int pageCount = document.getNumberOfPages();
+            final PDFRenderer renderer = new PDFRenderer(document);
+            final BlockingQueue<Page> queue = new ArrayBlockingQueue<>(PAGES_AHEAD);
+
+            // Render pages on a separate thread so that rendering overlaps with solving
+            Thread renderThread = new Thread(() -> {
+                int pageNumber = 0;
+                try {
+                    for (int i = 0; i < pageCount; i++) {
+                        pageNumber = i + 1;
+                        BufferedImage rendered = renderer.renderImageWithDPI(i, dpi, ImageType.RGB);
+                        Mat image = toMat(rendered);
+
+                        try {
+                            queue.put(new Page(image, pageNumber, null)); // Waits while the solver is behind
+                        } catch (InterruptedException e) {
+                            image.release(); // Never handed over
+                            throw e;
+                        }
+                    }
+                    queue.put(new Page(null, -1, null)); // End-of-book marker
+                } catch (InterruptedException e) {
+                    // The solver stopped early; nothing left to do
+                } catch (Throwable e) {
+                    // Any failure (eg. running out of memory on a huge page) must reach the solver, which is waiting
+                    putQuietly(queue, new Page(null, pageNumber, e));
+                }
+            }, "pdf-render");
+            renderThread.setDaemon(true);
+            renderThread.start();
+
+            try {
+                while (true) {
+                    Page page = queue.take(); // Wait for the next rendered page
+
+                    if (page.error instanceof IOException) {
+                        throw (IOException) page.error;
+                    }
+                    if (page.error != null) {
+                        throw new IOException("Page " + page.number + " could not be rendered", page.error);
+                    }
+                    if (page.image == null) {
+                        break; // All pages have been processed
+                    }
+
+                    try {
+                        handler.handle(page.image, page.number, pageCount);
+                    } finally {
+                        page.image.release(); // Release resources before the next page
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // Stop the render thread and wait for it, since closing the document under it is unsafe
+                renderThread.interrupt();
+                joinUninterruptibly(renderThread);
+
+                // Release any page that was rendered but never solved
+                Page leftover;
+                while ((leftover = queue.poll()) != null) {
+                    if (leftover.image != null) {
+                        leftover.image.release();
+                    }
+                }
+            }
+        }
+    }
+
+    // Convert a rendered RGB page into a BGR Mat, the channel order used throughout the project
+    static Mat toMat(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        int[] rgb = image.getRGB(0, 0, width, height, null, 0, width); // Packed 0xRRGGBB pixels
+        byte[] bgr = new byte[width * height * 3];
+
+        for (int i = 0; i < rgb.length; i++) {
+            bgr[i * 3] = (byte) rgb[i];               // Blue
+            bgr[i * 3 + 1] = (byte) (rgb[i] >> 8);    // Green
+            bgr[i * 3 + 2] = (byte) (rgb[i] >> 16);   // Red
+        }
+
+        Mat mat = new Mat(height, width, CvType.CV_8UC3);
+        mat.put(0, 0, bgr);
+
+        return mat;
+    }
+
+    // Wait for a thread to finish, keeping (but not acting on) an interruption of the current thread
+    private static void joinUninterruptibly(Thread thread) {
+        boolean isInterrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Convert the DPI system property into a number, falling back to 150
+    private static float parseDpi(String value) {
+        try {
+            float dpi = Float.parseFloat(value.trim());
+            if (dpi > 0) {
+                return dpi;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.out.println("Invalid PDF resolution \"" + value + "\", using 150 DPI.");
+        return 150;
+    }
+
+    // Put an element on the queue, ignoring interruption (used for error reporting)
+    private static void putQuietly(BlockingQueue<Page> queue, Page page) {
+        try {
+            queue.put(page);
+        } catch (InterruptedException ignored) {
+            // The solver has already stopped
+        }
+    }
+}
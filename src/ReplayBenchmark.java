@@ -0,0 +1,181 @@
+// This file measures the live (video) pipeline without a webcam or a window, so that
+// performance changes can be compared reproducibly on any machine (eg. a headless Linux box).
+// Each clip is replayed through grid detection and the speculative solver, and a report is printed.
+//
+// Usage: java ReplayBenchmark [--fast] clip1 [clip2 ...]
+//   --fast  replay as fast as possible instead of at the clip's native speed
+// A clip may be a video file or an image sequence pattern (eg. "clips/frame_%04d.png").
+// Its ground truth grid is read from a text file next to it with the extension replaced by ".txt":
+// 81 characters, row by row, with 0 or . for empty cells.
+
+// Import necessary libraries
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ReplayBenchmark {
+
+    public static void main(String[] args) {
+        // Load OpenCV library
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        boolean realTime = true;
+        List<String> clips = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.equals("--fast")) {
+                realTime = false;
+            } else {
+                clips.add(arg);
+            }
+        }
+
+        if (clips.isEmpty()) {
+            System.out.println("Usage: java ReplayBenchmark [--fast] clip1 [clip2 ...]");
+            return;
+        }
+
+        System.out.printf("%-30s %8s %10s %8s %8s %12s %10s%n",
+                "clip", "frames", "detected", "fps", "dropped", "first solve", "ocr");
+
+        for (String clip : clips) {
+            benchmarkClip(clip, realTime);
+        }
+    }
+
+    // Replay one clip through the live pipeline and print its results
+    private static void benchmarkClip(String clip, boolean realTime) {
+        ReplaySource source = new ReplaySource(clip, realTime);
+        if (!source.isOpened()) {
+            System.out.println(clip + ": could not be opened.");
+            return;
+        }
+
+        int[][] groundTruth = readGroundTruth(clip);
+        SpeculativeSolver speculativeSolver = new SpeculativeSolver();
+
+        Mat frame = new Mat();
+        Mat lastDetectedFrame = null;
+        Point[] lastCorners = null;
+
+        int frameCount = 0;
+        int detectedCount = 0;
+        long firstSolveNanos = -1;
+        SpeculativeSolver.Result firstResult = null;
+
+        // Forget any corners left over from a previous clip
+        Arrays.fill(HoughLinesRun.sortedPoints, null);
+        HoughLinesRun.isQuadFound = false;
+
+        long startNanos = System.nanoTime();
+
+        while (source.read(frame)) {
+            frameCount++;
+
+            HoughLinesRun.run(frame); // Process frame, as the video thread does
+            Point[] corners = HoughLinesRun.foundCorners(); // Only a grid found in this very frame counts
+
+            if (corners != null) {
+                detectedCount++;
+                lastCorners = corners.clone();
+
+                if (lastDetectedFrame != null) {
+                    lastDetectedFrame.release();
+                }
+                lastDetectedFrame = frame.clone();
+            }
+
+            speculativeSolver.onFrame(frame, corners);
+
+            // Record the first moment a solved grid is ready, as if Solve had been pressed then
+            if (firstResult == null) {
+                firstResult = speculativeSolver.pollResult();
+                if (firstResult != null) {
+                    firstSolveNanos = System.nanoTime() - startNanos;
+                }
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        // The clip ended while the grid was still being solved: wait for it
+        if (firstResult == null && lastCorners != null) {
+            firstResult = speculativeSolver.takeResult(lastCorners);
+            if (firstResult != null && firstResult.isSolved) {
+                firstSolveNanos = System.nanoTime() - startNanos;
+            }
+        }
+        speculativeSolver.cancel();
+
+        // Read the last detected frame if nothing was read speculatively, so OCR accuracy is still reported
+        int[][] givens = null;
+        if (firstResult != null) {
+            givens = firstResult.givens;
+        } else if (lastDetectedFrame != null) {
+            givens = MultiGridSolver.readAndSolve(HoughLinesRun.warp(lastDetectedFrame, lastCorners)).givens;
+        }
+
+        String firstSolve = firstSolveNanos < 0 ? "never" : String.format("%.0f ms", firstSolveNanos / 1e6);
+        String accuracy = groundTruth == null || givens == null ? "n/a" : String.format("%.1f%%", ocrAccuracy(givens, groundTruth));
+
+        System.out.printf("%-30s %8d %10d %8.1f %8d %12s %10s%n",
+                Paths.get(clip).getFileName(), frameCount, detectedCount,
+                frameCount / (elapsedNanos / 1e9), source.droppedFrames(), firstSolve, accuracy);
+
+        // Release resources
+        frame.release();
+        if (lastDetectedFrame != null) {
+            lastDetectedFrame.release();
+        }
+        source.release();
+    }
+
+    // Percentage of the 81 cells that OCR read correctly (empty cells included)
+    static double ocrAccuracy(int[][] givens, int[][] groundTruth) {
+        int correct = 0;
+        for (int row = 0; row < 9; row++) {
+            for (int col = 0; col < 9; col++) {
+                if (givens[row][col] == groundTruth[row][col]) {
+                    correct++;
+                }
+            }
+        }
+        return correct * 100.0 / 81;
+    }
+
+    // Read the ground truth grid stored next to the clip, or null if there is none
+    static int[][] readGroundTruth(String clip) {
+        String base = clip.contains(".") ? clip.substring(0, clip.lastIndexOf('.')) : clip;
+        Path path = Paths.get(base.replaceAll("%0?\\d*d", "") + ".txt"); // "frame_%04d" -> "frame_.txt"
+
+        try {
+            String line = Files.readAllLines(path).stream()
+                    .map(String::trim)
+                    .filter(text -> !text.isEmpty())
+                    .findFirst()
+                    .orElse("");
+
+            if (line.length() != 81) {
+                System.out.println(path + ": ground truth should be 81 characters.");
+                return null;
+            }
+
+            int[][] grid = new int[9][9];
+            for (int i = 0; i < 81; i++) {
+                char c = line.charAt(i);
+                grid[i / 9][i % 9] = Character.isDigit(c) ? c - '0' : 0;
+            }
+            return grid;
+        } catch (IOException e) {
+            return null; // No ground truth for this clip
+        }
+    }
+}
@@ -0,0 +1,92 @@
+// This file replays a recorded video file or image sequence in place of the webcam.
+// OpenCV opens both kinds of input from a path (eg. "clips/puzzle.mp4" or "clips/frame_%04d.png").
+// Frames are either delivered at the clip's native speed (skipping frames if processing falls behind,
+// just like a live camera) or as fast as they can be processed.
+
+// Import necessary libraries
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+public class ReplaySource extends VideoCapture {
+
+    // Clip to replay instead of the webcam (-Dsudokucv.replay=path), or null to use the webcam
+    static final String REPLAY_PATH = System.getProperty("sudokucv.replay");
+
+    // Index of the webcam opened when no clip is replayed
+    static final int CAMERA_INDEX = 0;
+
+    // Frame rate assumed when the clip does not report one (eg. image sequences)
+    private static final double DEFAULT_FPS = 30;
+
+    private final boolean realTime; // true: native speed, false: as fast as possible
+    private final double fps;
+
+    private long startNanos = -1; // Time the first frame was delivered
+    private long nextFrame = 0;   // Index of the next frame in the clip
+    private int droppedFrames = 0;
+
+    public ReplaySource(String path, boolean realTime) {
+        super(path);
+        this.realTime = realTime;
+
+        double clipFps = get(Videoio.CAP_PROP_FPS);
+        this.fps = clipFps > 0 ? clipFps : DEFAULT_FPS;
+    }
+
+    // Open the clip given on the command line if there is one, otherwise the default webcam
+    static VideoCapture openDefault() {
+        if (REPLAY_PATH == null) {
+            return new VideoCapture(CAMERA_INDEX);
+        }
+        return new ReplaySource(REPLAY_PATH, !Boolean.getBoolean("sudokucv.replay.fast"));
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        if (!realTime) {
+            nextFrame++;
+            return super.read(frame);
+        }
+
+        if (startNanos < 0) {
+            startNanos = System.nanoTime();
+        }
+
+        // The frame a live camera would be showing right now
+        long dueFrame = (long) ((System.nanoTime() - startNanos) / 1e9 * fps);
+
+        // Processing fell behind: skip the frames that a camera would have dropped
+        while (nextFrame < dueFrame) {
+            if (!grab()) {
+                return false; // End of the clip
+            }
+            nextFrame++;
+            droppedFrames++;
+        }
+
+        // Processing is ahead: wait until the next frame is due
+        long waitNanos = startNanos + (long) (nextFrame / fps * 1e9) - System.nanoTime();
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        nextFrame++;
+        return super.read(frame);
+    }
+
+    // Number of frames skipped because processing could not keep up with the clip's frame rate
+    public int droppedFrames() {
+        return droppedFrames;
+    }
+
+    // The clip's frame rate
+    public double fps() {
+        return fps;
+    }
+}
@@ -0,0 +1,201 @@
+// This file solves the puzzle in the background while the user is still framing it with the camera.
+// Once the detected corners have stayed still for a number of frames, the current frame is warped,
+// read and solved on a background thread. If the user then presses Solve, the result is usually ready.
+// The background work is cancelled as soon as the grid moves.
+
+// Import necessary libraries
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SpeculativeSolver {
+
+    // Number of frames the corners must stay still before solving starts (0 turns speculation off)
+    static final int STABLE_FRAMES = Integer.getInteger("sudokucv.speculative.frames", 10);
+
+    // How far (in pixels) a corner may move between frames and still count as "still"
+    static final double CORNER_TOLERANCE = 8;
+
+    // Single background thread; there is never more than one speculative solve at a time
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "speculative-solver");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1); // Keep the video feed smooth
+        return thread;
+    });
+
+    // Corners seen in the previous frame and for how many frames they have been still
+    private Point[] lastCorners;
+    private int stableCount = 0;
+
+    // The running (or finished) speculative solve and the corners it was started for
+    private Future<Result> pending;
+    private Point[] pendingCorners;
+
+    // A solved grid, ready to be displayed
+    static class Result {
+        final Mat solvedMat; // Warped grid with the solution drawn on it
+        final int[][] givens; // Numbers read by OCR
+        final boolean isSolved;
+
+        Result(Mat solvedMat, int[][] givens, boolean isSolved) {
+            this.solvedMat = solvedMat;
+            this.givens = givens;
+            this.isSolved = isSolved;
+        }
+    }
+
+    // Called by the video thread for every frame, with the grid's corners (or null if no grid was found)
+    public synchronized void onFrame(Mat frame, Point[] corners) {
+        if (STABLE_FRAMES <= 0) {
+            return;
+        }
+
+        if (corners == null || !isComplete(corners)) {
+            lastCorners = null;
+            stableCount = 0;
+            cancel();
+            return;
+        }
+
+        // Count how many frames in a row the corners have stayed still
+        if (lastCorners != null && isNear(corners, lastCorners)) {
+            stableCount++;
+        } else {
+            stableCount = 0;
+        }
+        lastCorners = copy(corners);
+
+        // The grid moved away from where the speculative solve started: its result is useless
+        if (pending != null && !isNear(corners, pendingCorners)) {
+            cancel();
+        }
+
+        // A finished solve that failed (eg. a blurry frame) is retried once the grid has been still again
+        if (pending != null && pending.isDone() && !isSuccessful(pending)) {
+            pending = null;
+            pendingCorners = null;
+            stableCount = 0;
+        }
+
+        if (stableCount >= STABLE_FRAMES && pending == null) {
+            final Mat snapshot = frame.clone(); // The video thread keeps reading into the frame
+            final Point[] snapshotCorners = copy(corners);
+
+            pendingCorners = snapshotCorners;
+            pending = worker.submit(() -> solve(snapshot, snapshotCorners));
+        }
+    }
+
+    // Get the speculative result for a grid at the given corners, waiting for it if it is still running.
+    // Returns null if there is no speculative solve for those corners, or if it did not solve the grid.
+    public Result takeResult(Point[] corners) {
+        Future<Result> future;
+
+        synchronized (this) {
+            if (!hasResultFor(corners)) {
+                return null;
+            }
+            future = pending;
+        }
+
+        try {
+            Result result = future.get();
+            return result.isSolved ? result : null; // A failed attempt is no better than solving from scratch
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (CancellationException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    // Get the speculative result without waiting; null unless a solve has finished successfully
+    public synchronized Result pollResult() {
+        if (pending == null || !pending.isDone() || !isSuccessful(pending)) {
+            return null;
+        }
+        return takeResult(pendingCorners);
+    }
+
+    // Whether a speculative solve for a grid at the given corners is running or has solved it
+    public synchronized boolean hasResultFor(Point[] corners) {
+        return pending != null && !pending.isCancelled() && (!pending.isDone() || isSuccessful(pending))
+                && corners != null && isComplete(corners) && isNear(corners, pendingCorners);
+    }
+
+    // Cancel the speculative solve, if any
+    public synchronized void cancel() {
+        if (pending != null) {
+            pending.cancel(true); // Interrupts the solver, which then gives up
+            pending = null;
+            pendingCorners = null;
+        }
+    }
+
+    // Warp, read and solve a frame (runs on the background thread)
+    private static Result solve(Mat frame, Point[] corners) {
+        Mat warpedMat = HoughLinesRun.warp(frame, corners); // Warp input image
+        Mat solvedClone = warpedMat.clone(); // Clone warped image to draw the solution on
+        frame.release(); // Release resources
+
+        SudokuSolver.Solution solution = MultiGridSolver.readAndSolve(warpedMat);
+        warpedMat.release();
+
+        if (Thread.currentThread().isInterrupted()) {
+            solvedClone.release();
+            throw new CancellationException();
+        }
+
+        boolean isSolved = SudokuSolver.drawSolutions(solvedClone, solution.solved, solution.givens);
+        DetectionTuner.recordSolve(isSolved); // Let the line removal settings learn while the camera is running
+
+        return new Result(solvedClone, solution.givens, isSolved);
+    }
+
+    // Whether a finished speculative solve produced a fully solved grid
+    private static boolean isSuccessful(Future<Result> future) {
+        try {
+            return future.get().isSolved;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (CancellationException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    // Whether every corner of a grid was found
+    private static boolean isComplete(Point[] corners) {
+        for (Point corner : corners) {
+            if (corner == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether every corner is within CORNER_TOLERANCE of the matching corner in the other grid
+    private static boolean isNear(Point[] a, Point[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Math.hypot(a[i].x - b[i].x, a[i].y - b[i].y) > CORNER_TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Copy the corner points, since HoughLinesRun keeps updating its own array
+    private static Point[] copy(Point[] corners) {
+        Point[] copy = new Point[corners.length];
+        for (int i = 0; i < corners.length; i++) {
+            copy[i] = corners[i].clone();
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,200 @@
+// This file generates Sudoku puzzles with exactly one solution, for load testing the solver.
+// A random full grid is made first, then numbers are removed one at a time (keeping the solution unique)
+// until the puzzle reaches the requested difficulty. Difficulty is rated by the number of search steps
+// SudokuSolver.answerPuzzle() needs to solve the puzzle.
+// Puzzles are printed one per line as 81 characters (row by row, 0 for empty cells).
+//
+// Usage: java SudokuGenerator count [easy|medium|hard|expert] [seed] [threads]
+// The same seed always produces the same puzzles, no matter how many threads are used.
+
+// Import necessary libraries
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+public class SudokuGenerator {
+
+    // Difficulty levels, as a range of answerPuzzle() search steps
+    enum Difficulty {
+        EASY(45, 200),
+        MEDIUM(200, 1_000),
+        HARD(1_000, 10_000),
+        EXPERT(10_000, Long.MAX_VALUE);
+
+        final long minNodes;
+        final long maxNodes;
+
+        Difficulty(long minNodes, long maxNodes) {
+            this.minNodes = minNodes;
+            this.maxNodes = maxNodes;
+        }
+    }
+
+    // Puzzles generated in parallel before being written out, which keeps memory use bounded
+    private static final int BATCH_SIZE = 10_000;
+
+    // Constant used to give every puzzle index its own, well separated random seed
+    private static final long SEED_STEP = 0x9E3779B97F4A7C15L;
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        if (args.length == 0) {
+            System.out.println("Usage: java SudokuGenerator count [easy|medium|hard|expert] [seed] [threads]");
+            return;
+        }
+
+        long count = Long.parseLong(args[0]);
+        Difficulty difficulty = args.length > 1 ? Difficulty.valueOf(args[1].toUpperCase()) : Difficulty.MEDIUM;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            for (long start = 0; start < count; start += BATCH_SIZE) {
+                final long batchStart = start;
+                final long batchEnd = Math.min(count, start + BATCH_SIZE);
+
+                // Generate the batch in parallel, keeping the puzzles in order
+                String[] batch = pool.submit(() -> LongStream.range(batchStart, batchEnd)
+                        .parallel()
+                        .mapToObj(index -> toLine(generate(seed, index, difficulty)))
+                        .toArray(String[]::new)).get();
+
+                for (String line : batch) {
+                    out.write(line);
+                    out.write('\n');
+                }
+            }
+        } finally {
+            pool.shutdown();
+            out.flush();
+        }
+    }
+
+    // Generate the puzzle with the given index for a seed; the same inputs always give the same puzzle
+    public static int[][] generate(long seed, long index, Difficulty difficulty) {
+        SplittableRandom random = new SplittableRandom(seed + index * SEED_STEP);
+
+        while (true) {
+            int[][] puzzle = randomFullGrid(random);
+
+            if (removeNumbers(puzzle, difficulty, random)) {
+                return puzzle;
+            }
+            // This grid never got hard enough; try another one
+        }
+    }
+
+    // Make a random, completely filled (valid) grid
+    private static int[][] randomFullGrid(SplittableRandom random) {
+        int[][] grid = new int[9][9];
+        fillRandomly(new SudokuSolver(grid), grid, random);
+        return grid;
+    }
+
+    // Backtracking like answerPuzzle(), but trying the numbers in a random order
+    private static boolean fillRandomly(SudokuSolver solver, int[][] grid, SplittableRandom random) {
+        for (int row = 0; row < 9; row++) {
+            for (int column = 0; column < 9; column++) {
+                if (grid[row][column] == 0) { // Check for empty cells
+                    for (int possibleNumber : shuffledRange(9, 1, random)) {
+                        if (solver.isPossible(row, column, possibleNumber)) {
+                            grid[row][column] = possibleNumber; // Place the number
+
+                            if (fillRandomly(solver, grid, random)) {
+                                return true;
+                            }
+                            grid[row][column] = 0; // Reset the cell if it leads to no solution
+                        }
+                    }
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Remove numbers in a random order while the solution stays unique, until the puzzle is in range.
+    // Returns false if the puzzle could not be brought into the difficulty range.
+    private static boolean removeNumbers(int[][] puzzle, Difficulty difficulty, SplittableRandom random) {
+        SudokuSolver solver = new SudokuSolver(puzzle);
+
+        for (int cell : shuffledRange(81, 0, random)) {
+            int row = cell / 9;
+            int column = cell % 9;
+            int removed = puzzle[row][column];
+
+            puzzle[row][column] = 0;
+
+            // Put the number back if the puzzle no longer has exactly one solution
+            if (solver.countSolutions(puzzle, 2) != 1) {
+                puzzle[row][column] = removed;
+                continue;
+            }
+
+            // The hardest level has no upper bound, so it simply removes as many numbers as possible
+            if (difficulty == Difficulty.EXPERT) {
+                continue;
+            }
+
+            long nodes = rate(puzzle);
+
+            if (nodes >= difficulty.maxNodes) {
+                puzzle[row][column] = removed; // Too hard without this number; keep it and try the other cells
+                continue;
+            }
+            if (nodes >= difficulty.minNodes) {
+                return true;
+            }
+        }
+
+        return rate(puzzle) >= difficulty.minNodes;
+    }
+
+    // Rate a puzzle by the number of steps answerPuzzle() takes to solve it
+    static long rate(int[][] puzzle) {
+        int[][] copy = new int[9][];
+        for (int row = 0; row < 9; row++) {
+            copy[row] = puzzle[row].clone();
+        }
+
+        SudokuSolver solver = new SudokuSolver(copy);
+        solver.answerPuzzle(copy);
+        return solver.nodeCount;
+    }
+
+    // The numbers first, first + 1, ..., first + count - 1 in a random order
+    private static int[] shuffledRange(int count, int first, SplittableRandom random) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = first + i;
+        }
+
+        // Fisher-Yates shuffle
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = values[i];
+            values[i] = values[j];
+            values[j] = temp;
+        }
+        return values;
+    }
+
+    // Write a puzzle as 81 characters, row by row
+    static String toLine(int[][] puzzle) {
+        StringBuilder line = new StringBuilder(81);
+        for (int[] row : puzzle) {
+            for (int cell : row) {
+                line.append((char) ('0' + cell));
+            }
+        }
+        return line.toString();
+    }
+}
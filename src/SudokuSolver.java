@@ -3,17 +3,21 @@
 // and returns the solution on an image at the end.
 
 // Import necessary libraries
+import com.sun.jna.Pointer;
+import net.sourceforge.tess4j.ITessAPI;
+import net.sourceforge.tess4j.TessAPI;
 import net.sourceforge.tess4j.Tesseract;
 import net.sourceforge.tess4j.TesseractException;
 import org.opencv.core.*;
 import org.opencv.core.Point;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 public class SudokuSolver {
 
@@ -24,7 +28,42 @@ public class SudokuSolver {
     // A copy of the Sudoku grid to keep track of predefined numbers
     static int[][] sudokuCopy = new int[9][9];
 
-    // This method performs OCR on the cell images and fills the Sudoku grid
+    // One Tesseract engine per thread, so that several grids can be read at the same time.
+    // Its C API is used directly, since the Tesseract class only reports the best reading of each symbol.
+    private static final ThreadLocal<ITessAPI.TessBaseAPI> threadTesseract = new ThreadLocal<>();
+
+    // The grid checked by isPossible(); each solver instance works on its own grid
+    private final int[][] grid;
+
+    // Number of steps answerPuzzle() has taken so far (a rough measure of how hard a puzzle is)
+    long nodeCount = 0;
+
+    // answerPuzzle() gives up once it has taken this many steps
+    long nodeLimit = Long.MAX_VALUE;
+
+    // The numbers read from a grid and the grid after solving
+    static class Solution {
+        final int[][] givens; // Numbers read by OCR (0 for empty cells)
+        final int[][] solved; // Grid after solving (cells left at 0 if no solution was found)
+
+        Solution(int[][] givens, int[][] solved) {
+            this.givens = givens;
+            this.solved = solved;
+        }
+    }
+
+    // Solver for the shared sudokuArray grid (single puzzle mode)
+    public SudokuSolver() {
+        this(sudokuArray);
+    }
+
+    // Solver for a grid of its own, so that several puzzles can be solved concurrently
+    public SudokuSolver(int[][] grid) {
+        this.grid = grid;
+    }
+
+    // This method performs OCR on the cell images saved by the last capture (data/cells, written at the
+    // ALL debug level) and fills the Sudoku grid
     public static void getCellOCR() {
         ArrayList<String> cellData = new ArrayList<>(); // List to store OCR results for each cell
         Tesseract tesseract = new Tesseract(); // Instantiate Tesseract object
@@ -41,19 +80,8 @@ public class SudokuSolver {
                 // Perform OCR on the cell image
                 String output = tesseract.doOCR(new File("data/cells/cell_" + i + ".png"));
 
-                // Remove all non-digit characters from the OCR result
-                output = output.replaceAll("[^0-9]", "");
-
-                // If OCR result is empty, set it to "0"`
-                if (output.isEmpty()) {
-                    output = "0";
-                }
-
-                // Consider only the first character if OCR result has multiple characters
-                output = String.valueOf(output.charAt(0));
-
                 // Add the processed OCR result to the list
-                cellData.add(output);
+                cellData.add(String.valueOf(parseDigit(output)));
 
             } catch (TesseractException e) {
                 e.printStackTrace();
@@ -82,19 +110,161 @@ public class SudokuSolver {
         System.out.println("2D Array Data: " + Arrays.deepToString(sudokuArray)); // Print the copy array for debugging
     }
 
+    // Perform OCR on cell images held in memory (row by row), keeping every candidate digit of each cell.
+    // Cells already known to be empty are skipped instead of being read.
+    public static CellReading[] readCells(List<Mat> cells, boolean[] emptyCells) {
+        ITessAPI.TessBaseAPI tesseract = tesseractForCurrentThread();
+        CellReading[] readings = new CellReading[cells.size()];
+
+        for (int i = 0; i < cells.size(); i++) {
+            if (emptyCells[i]) {
+                readings[i] = CellReading.empty();
+                continue;
+            }
+
+            try {
+                readings[i] = readCell(tesseract, cells.get(i));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                readings[i] = CellReading.fromOcr(0, 0);
+            }
+        }
+
+        return readings;
+    }
+
+    // Get the current thread's Tesseract engine, starting it the first time
+    private static ITessAPI.TessBaseAPI tesseractForCurrentThread() {
+        ITessAPI.TessBaseAPI handle = threadTesseract.get();
+        if (handle != null) {
+            return handle;
+        }
+
+        TessAPI api = TessAPI.INSTANCE;
+        handle = api.TessBaseAPICreate();
+        if (api.TessBaseAPIInit3(handle, "tessdata_digits", "digits") != 0) {
+            api.TessBaseAPIDelete(handle); // Release resources
+            throw new IllegalStateException("Tesseract could not load the \"digits\" language from tessdata_digits;"
+                    + " check that tessdata_digits/digits.traineddata exists in the working directory.");
+        }
+        api.TessBaseAPISetVariable(handle, "save_blob_choices", "T"); // Keep every candidate of a symbol
+
+        threadTesseract.set(handle);
+        return handle;
+    }
+
+    // Free the current thread's Tesseract engine, if it has one (call before a short-lived solving thread ends)
+    public static void releaseOcr() {
+        ITessAPI.TessBaseAPI handle = threadTesseract.get();
+        if (handle != null) {
+            TessAPI.INSTANCE.TessBaseAPIEnd(handle);
+            TessAPI.INSTANCE.TessBaseAPIDelete(handle);
+            threadTesseract.remove();
+        }
+    }
+
+    // Read one (8-bit grayscale) cell symbol by symbol, keeping every digit Tesseract considered for
+    // the first digit symbol along with its confidence
+    private static CellReading readCell(ITessAPI.TessBaseAPI tesseract, Mat cell) {
+        TessAPI api = TessAPI.INSTANCE;
+        int level = ITessAPI.TessPageIteratorLevel.RIL_SYMBOL;
+
+        // Copy the cell's pixels into a buffer Tesseract can read
+        byte[] pixels = new byte[(int) cell.total() * cell.channels()];
+        cell.get(0, 0, pixels);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length);
+        buffer.put(pixels).flip();
+
+        api.TessBaseAPISetImage(tesseract, buffer, cell.cols(), cell.rows(), cell.channels(), cell.cols() * cell.channels());
+        if (api.TessBaseAPIRecognize(tesseract, null) != 0) {
+            return CellReading.fromOcr(0, 0); // Recognition failed
+        }
+
+        ITessAPI.TessResultIterator symbols = api.TessBaseAPIGetIterator(tesseract);
+        if (symbols == null) {
+            return CellReading.fromOcr(0, 0); // Nothing was read, so the cell is empty
+        }
+
+        List<Integer> digits = new ArrayList<>();
+        List<Double> confidences = new ArrayList<>();
+
+        try {
+            do {
+                Pointer text = api.TessResultIteratorGetUTF8Text(symbols, level);
+                if (text == null) {
+                    continue;
+                }
+                int digit = parseDigit(text.getString(0, "UTF-8"));
+                api.TessDeleteText(text);
+
+                if (digit == 0) {
+                    continue;
+                }
+
+                // The best reading, then every other reading Tesseract considered for the same symbol
+                digits.add(digit);
+                confidences.add((double) api.TessResultIteratorConfidence(symbols, level));
+
+                ITessAPI.TessChoiceIterator choices = api.TessResultIteratorGetChoiceIterator(symbols);
+                if (choices != null) {
+                    do {
+                        String choice = api.TessChoiceIteratorGetUTF8Text(choices);
+                        int choiceDigit = choice == null ? 0 : parseDigit(choice);
+
+                        if (choiceDigit != 0) {
+                            digits.add(choiceDigit);
+                            confidences.add((double) api.TessChoiceIteratorConfidence(choices));
+                        }
+                    } while (api.TessChoiceIteratorNext(choices) == ITessAPI.TRUE);
+                    api.TessChoiceIteratorDelete(choices);
+                }
+                break; // Consider only the first digit if OCR result has multiple characters
+            } while (api.TessResultIteratorNext(symbols, level) == ITessAPI.TRUE);
+        } finally {
+            api.TessResultIteratorDelete(symbols); // Release resources
+        }
+
+        return CellReading.fromChoices(digits, confidences);
+    }
+
+    // Fill the main grid with a solved grid, and its copy with the predefined numbers it was solved from
+    public static void loadGrid(Solution solution) {
+        for (int row = 0; row < 9; row++) {
+            System.arraycopy(solution.solved[row], 0, sudokuArray[row], 0, 9);
+            System.arraycopy(solution.givens[row], 0, sudokuCopy[row], 0, 9);
+        }
+
+        System.out.println("2D Array Data: " + Arrays.deepToString(sudokuCopy)); // Print the copy array for debugging
+        System.out.println("\n Solved Sudoku Array:\n" + Arrays.deepToString(sudokuArray)); // Print solved Sudoku array
+    }
+
+    // Turn a raw OCR result into a single digit (0 for an empty cell)
+    private static int parseDigit(String output) {
+        // Remove all non-digit characters from the OCR result
+        output = output.replaceAll("[^0-9]", "");
+
+        // If OCR result is empty, the cell is empty
+        if (output.isEmpty()) {
+            return 0;
+        }
+
+        // Consider only the first character if OCR result has multiple characters
+        return output.charAt(0) - '0';
+    }
+
     // Method to check if placing a number at a given position is valid
     public Boolean isPossible(int row, int column, int possibleNumber) {
 
         // Check if the number already exists in the current row
-        for (int i = 0; i < sudokuArray.length; i++) {
-            if (sudokuArray[row][i] == possibleNumber) {
+        for (int i = 0; i < grid.length; i++) {
+            if (grid[row][i] == possibleNumber) {
                 return false;
             }
         }
 
         // Check if the number already exists in the current column
-        for (int i = 0; i < sudokuArray.length; i++) {
-            if (sudokuArray[i][column] == possibleNumber) {
+        for (int i = 0; i < grid.length; i++) {
+            if (grid[i][column] == possibleNumber) {
                 return false;
             }
         }
@@ -106,7 +276,7 @@ public class SudokuSolver {
         // Check if the number already exists in the 3x3 sub-grid
         for (int i = 0; i < 3; i++) {
             for (int j = 0; j < 3; j++) {
-                if (sudokuArray[rowOrigin + i][columnOrigin + j] == possibleNumber) {
+                if (grid[rowOrigin + i][columnOrigin + j] == possibleNumber) {
                     return false;
                 }
             }
@@ -118,6 +288,14 @@ public class SudokuSolver {
 
     // Recursive method to solve the Sudoku puzzle using backtracking
     public boolean answerPuzzle(int[][] sudokuArray) {
+        // Give up if the solve was cancelled (eg. a speculative solve for a grid that has since moved),
+        // or if it is taking too long (eg. a misread digit made the puzzle unsolvable)
+        if (Thread.currentThread().isInterrupted() || nodeCount >= nodeLimit) {
+            return false;
+        }
+
+        nodeCount++; // Count every step of the search
+
         // Loop through rows and columns
         for (int row = 0; row < sudokuArray.length; row++) {
             for (int column = 0; column < sudokuArray.length; column++) {
@@ -142,47 +320,90 @@ public class SudokuSolver {
         return true; // Return true if the entire grid is filled without conflict
     } // end of answerPuzzle() method
 
+    // Count the solutions of the puzzle, stopping once the limit is reached (the grid is left unchanged).
+    // A puzzle is valid when this returns 1 with a limit of 2. If the search is cancelled or takes more than
+    // nodeLimit steps, the limit is returned, so an unfinished count never passes for a unique solution.
+    public int countSolutions(int[][] sudokuArray, int limit) {
+        if (Thread.currentThread().isInterrupted() || nodeCount >= nodeLimit) {
+            return limit;
+        }
+
+        nodeCount++; // Count every step of the search
+
+        // Find the first empty cell
+        for (int row = 0; row < sudokuArray.length; row++) {
+            for (int column = 0; column < sudokuArray.length; column++) {
+                if (sudokuArray[row][column] == 0) {
+                    int count = 0;
+
+                    // Count the solutions for every number that could go in this cell
+                    for (int possibleNumber = 1; possibleNumber <= 9 && count < limit; possibleNumber++) {
+                        if (isPossible(row, column, possibleNumber)) {
+                            sudokuArray[row][column] = possibleNumber;
+                            count += countSolutions(sudokuArray, limit - count);
+                            sudokuArray[row][column] = 0; // Reset the cell
+                        }
+                    }
+                    return count;
+                }
+            }
+        }
+        return 1; // The grid is full, which is exactly one solution
+    } // end of countSolutions() method
+
     // This method draws the solution numbers on the Sudoku grid image
     public static Mat drawSolutions(Mat src) {
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 
+        isPuzzleSolved = drawSolutions(src, sudokuArray, sudokuCopy);
+
+        return src;
+    } // end of drawSolutions() method
+
+    // Draw the solved numbers of any grid onto its image; returns false if some cell is still unsolved
+    public static boolean drawSolutions(Mat src, int[][] solved, int[][] givens) {
+        boolean isSolved = true;
+
         // Get cell dimensions (it's an even 9x9 grid, so each cell will have 1/9 of the image's height & width)
         int cellWidth = src.width() / 9;
         int cellHeight = src.height() / 9;
 
-        // Loop through the 2D sudokuCopy array
-        for (int i = 0; i < sudokuCopy.length; i++) {
-            for (int j = 0; j < sudokuCopy[i].length; j++) {
-                if (sudokuCopy[i][j] == 0) { // Check if the cell was initially empty
+        // Loop through the 2D givens array
+        for (int i = 0; i < givens.length; i++) {
+            for (int j = 0; j < givens[i].length; j++) {
+                if (givens[i][j] == 0) { // Check if the cell was initially empty
                     // Experimental values of positions that worked for all tested puzzles
                     double xPos = cellWidth * j + cellWidth * 0.25;
                     double yPos = cellHeight * i + cellHeight * 0.80;
 
-                    int currentInput = sudokuArray[i][j]; // Get the solved number for the cell
+                    int currentInput = solved[i][j]; // Get the solved number for the cell
 
                     // Draw the solved number on the image
                     Imgproc.putText(src, String.valueOf(currentInput), new Point(xPos, yPos), 4, 1.5,
                             new Scalar(255, 127, 100), 2);
 
-                    if (sudokuArray[i][j] == 0) {
-                        isPuzzleSolved = false;
+                    if (solved[i][j] == 0) {
+                        isSolved = false;
                     }
                 }
             }
         }
 
-        // Save the solved Sudoku image
-        Imgcodecs.imwrite("data/images/solved.png", src);
-
-        return src;
-    } // end of drawSolutions() method
+        return isSolved;
+    }
 
     public static void main(String... args) {
 
-        SudokuSolver sudoku = new SudokuSolver(); // Instantiate SudokuSolver object
-
         // Perform relevant methods
         getCellOCR();
+        solveLoadedGrid();
+
+    } // end of main method
+
+    // Solve the grid currently held in sudokuArray
+    public static void solveLoadedGrid() {
+
+        SudokuSolver sudoku = new SudokuSolver(); // Instantiate SudokuSolver object
 
         sudoku.answerPuzzle(sudokuArray); // Solve the Sudoku puzzle
 
@@ -194,6 +415,6 @@ public class SudokuSolver {
 
         System.out.println("\n Solved Sudoku Array:\n" + Arrays.deepToString(sudokuArray)); // Print solved Sudoku array
 
-    } // end of main method
+    } // end of solveLoadedGrid() method
 
 } // end of SudokuSolver class
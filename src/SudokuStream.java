@@ -5,11 +5,20 @@ import org.opencv.highgui.HighGui; // OpenCV high-level GUI functions
 import org.opencv.imgcodecs.Imgcodecs; // OpenCV image I/O functions
 import org.opencv.imgproc.Imgproc; // OpenCV image processing functions
 import org.opencv.videoio.VideoCapture; // OpenCV library for capturing video
+import org.opencv.videoio.Videoio; // OpenCV video capture properties
 import javax.swing.*; // Java Swing library for GUI components
 import java.awt.*; // Abstract Window Toolkit for GUI
 import java.awt.event.*; // Java AWT event handling
 import javax.swing.filechooser.FileNameExtensionFilter; // File chooser filter
 import java.io.File; // Java File class for file operations
+import java.io.IOException; // Exception thrown when a file cannot be read
+import java.io.PrintWriter; // Writer for the solutions of a PDF puzzle book
+import java.nio.file.Files; // Utility methods for files and folders
+import java.nio.file.Path; // Location of a file
+import java.nio.file.Paths; // Utility methods for building file locations
+import java.util.ArrayList; // Resizable list
+import java.util.Arrays; // Utility methods for arrays
+import java.util.List; // List interface
 
 // This class represents the main JFrame for the SudokuStream application.
 // This class "extends JFrame", meaning it is inherited from the JFrame class (uses properties within JFrame).
@@ -51,6 +60,15 @@ public class SudokuStream extends JFrame {
     // Boolean flag for video capture loop
     static boolean keepRunning = true;
 
+    // Solves the puzzle in the background while the camera is held still
+    final SpeculativeSolver speculativeSolver = new SpeculativeSolver();
+
+    // Page prefix shown in the status label when solving a PDF puzzle book (empty otherwise)
+    String pageInfo = "";
+
+    // Page being solved when solving a PDF puzzle book (0 otherwise)
+    int pageNumber = 0;
+
     // Constructor for the SudokuStream class
     public SudokuStream() {
         super("Sudoku Stream"); // Set JFrame title
@@ -222,15 +240,26 @@ public class SudokuStream extends JFrame {
 
             intermediateSolvingScreen();
 
+            // PDF puzzle books are rendered and solved page by page
+            if (chosenFile.getName().toLowerCase().endsWith(".pdf")) {
+                startSolvingThread(() -> solvePdf(chosenFile));
+                return;
+            }
+
             // Execute CPU-intensive methods in a separate thread
-            new Thread(() -> {
+            startSolvingThread(() -> {
                 // Process the chosen image
                 String filePath = chosenFile.getAbsolutePath();
                 Mat inputMat = Imgcodecs.imread(filePath);
-                Mat cornerDst = HoughLinesRun.run(inputMat);
 
-                // Perform post-processing
-                postProcessing(inputMat, cornerDst);
+                if (MultiGridSolver.ENABLED) {
+                    solveMultiGrid(inputMat); // Solve every grid in the image
+                } else {
+                    Mat cornerDst = HoughLinesRun.run(inputMat);
+
+                    // Perform post-processing
+                    postProcessing(inputMat, cornerDst);
+                }
 
                 // Stop the timer and remove the "Solving..." label after processing is complete
                 timer.stop();
@@ -239,12 +268,123 @@ public class SudokuStream extends JFrame {
                 // Revalidate and repaint the main panel to update the UI
                 mainPanel.revalidate();
                 mainPanel.repaint();
-            }).start();
+            });
 
         }
 
     }
 
+    // Run CPU-intensive solving on its own thread, freeing the thread's OCR engine once it is done
+    private static void startSolvingThread(Runnable solve) {
+        new Thread(() -> {
+            try {
+                solve.run();
+            } finally {
+                SudokuSolver.releaseOcr(); // Release resources
+            }
+        }).start();
+    }
+
+    // Method to solve every page of a PDF puzzle book, showing each solved page as it finishes.
+    // The solution of every page is written to data/solutions/<book>.txt, one 81-character line per grid.
+    public void solvePdf(File pdfFile) {
+        String bookName = pdfFile.getName().replaceAll("(?i)\\.pdf$", "");
+        Path solutionsPath = Paths.get("data", "solutions", bookName + ".txt");
+
+        try {
+            Files.createDirectories(solutionsPath.getParent());
+
+            Files.createDirectories(Paths.get("data", "images"));
+
+            try (PrintWriter solutions = new PrintWriter(Files.newBufferedWriter(solutionsPath))) {
+                PdfPuzzleBook.forEachPage(pdfFile, PdfPuzzleBook.DEFAULT_DPI, (page, number, pageCount) -> {
+                    pageNumber = number;
+                    pageInfo = "Page " + number + " of " + pageCount + ": ";
+
+                    // A page that cannot be solved should not stop the rest of the book
+                    try {
+                        solvePdfPage(page, number, solutions);
+                    } catch (RuntimeException e) {
+                        System.out.println(pageInfo + "could not be solved.");
+                        e.printStackTrace();
+                        solutions.println("page " + number + ": failed (" + e + ")");
+                    }
+
+                    // Remove the "Solving..." label once the first page is displayed
+                    timer.stop();
+                    mainPanel.remove(solvingLabel);
+                });
+            }
+
+            System.out.println("Solutions written to " + solutionsPath);
+        } catch (IOException e) {
+            System.out.println("PDF could not be read! Try again.");
+            e.printStackTrace();
+        } finally {
+            pageNumber = 0;
+        }
+
+        // Stop the timer and remove the "Solving..." label after processing is complete
+        timer.stop();
+        mainPanel.remove(solvingLabel);
+
+        // Revalidate and repaint the main panel to update the UI
+        mainPanel.revalidate();
+        mainPanel.repaint();
+    }
+
+    // Method to solve and display one page of a PDF puzzle book, writing its solutions
+    private void solvePdfPage(Mat page, int number, PrintWriter solutions) {
+        if (MultiGridSolver.ENABLED) {
+            MultiGridSolver.PageResult result = solveMultiGrid(page); // Solve every grid on the page
+
+            if (result.gridCount == 0) {
+                solutions.println("page " + number + ": no grid found");
+            }
+            for (int i = 0; i < result.solvedGrids.size(); i++) {
+                solutions.println("page " + number + " grid " + (i + 1) + ": "
+                        + SudokuGenerator.toLine(result.solvedGrids.get(i)));
+            }
+            return;
+        }
+
+        // Forget the corners of the previous page so pages without a grid are skipped
+        Arrays.fill(HoughLinesRun.sortedPoints, null);
+        Mat cornerDst = HoughLinesRun.run(page);
+
+        if (Arrays.asList(HoughLinesRun.sortedPoints).contains(null)) {
+            System.out.println(pageInfo + "no Sudoku grid found.");
+            solutions.println("page " + number + ": no grid found");
+            return;
+        }
+
+        // Perform post-processing
+        postProcessing(page, cornerDst);
+        solutions.println("page " + number + ": " + SudokuGenerator.toLine(SudokuSolver.sudokuArray)
+                + (SudokuSolver.isPuzzleSolved ? "" : " (not solved)"));
+    }
+
+    // Method to solve and display every grid found in one image (multi-grid mode)
+    public MultiGridSolver.PageResult solveMultiGrid(Mat page) {
+        MultiGridSolver.PageResult result = MultiGridSolver.solvePage(page);
+
+        mainPanel.remove(actionPanel);
+        mainPanel.remove(videoPanel);
+
+        // Create label indicating how many of the puzzles were solved
+        String status;
+        if (result.gridCount == 0) {
+            status = "<html>" + pageInfo + "No puzzles found!<br>Please try again.</html>";
+        } else {
+            status = "<html>" + pageInfo + "Solved " + result.solvedCount + " of " + result.gridCount + " puzzles!</html>";
+        }
+
+        saveSolvedImage(result.page); // Save the solved page
+        refactorJFrame(result.page, status);
+
+        return result;
+    }
+
     public void intermediateSolvingScreen() {
         // Set the background color of the main panel to black
         mainPanel.setBackground(Color.BLACK);
@@ -278,6 +418,7 @@ public class SudokuStream extends JFrame {
     // Method triggered when stop button is clicked
     public void stopBtnClicked() {
         videoCapture.release(); // Release video capture resources
+        DetectionTuner.stop(); // Stop tuning and save the detection settings
         actionPanel.remove(solveBtn); // Remove solve button
 
         // Remove existing components
@@ -285,20 +426,31 @@ public class SudokuStream extends JFrame {
         actionPanel.remove(vidOptionBtn);
         mainPanel.remove(infoLabel);
 
-        try {
-            Thread.sleep(1000); // Pause execution for 1 second
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        // If the puzzle was already solved in the background, there is no need to wait for the last frame
+        final boolean hasSpeculative = speculativeSolver.hasResultFor(HoughLinesRun.sortedPoints);
+
+        if (!hasSpeculative) {
+            try {
+                Thread.sleep(1000); // Pause execution for 1 second
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         intermediateSolvingScreen(); // Display intermediate solving screen
 
         // Execute CPU-intensive methods in a separate thread
-        new Thread(() -> {
-            // Process the chosen image
+        startSolvingThread(() -> {
+            // Use the background result if there is one (waiting for it if it is almost done)
+            SpeculativeSolver.Result result = hasSpeculative ? speculativeSolver.takeResult(HoughLinesRun.sortedPoints) : null;
+            speculativeSolver.cancel();
 
-            // Perform post-processing
-            postProcessing(frame, newFrame);
+            if (result != null) {
+                showSpeculativeResult(result);
+            } else {
+                // Perform post-processing
+                postProcessing(frame, newFrame);
+            }
 
             // Stop the timer and remove the "Solving..." label after processing is complete
             timer.stop();
@@ -307,7 +459,7 @@ public class SudokuStream extends JFrame {
             // Revalidate and repaint the main panel to update the UI
             mainPanel.revalidate();
             mainPanel.repaint();
-        }).start();
+        });
 
     }
 
@@ -319,24 +471,84 @@ public class SudokuStream extends JFrame {
         pack(); // Pack components within JFrame
 
         Mat warpedMat = warpMat(src, procImg); // Warp input image
-        Imgcodecs.imwrite("data/images/stream_img.jpg", warpedMat); // Write processed image to file
+        DebugSink.stage("data/images/stream_img.jpg", warpedMat); // Queue processed image to be written
 
         Mat solvedClone = warpedMat.clone(); // Clone warped image
         HoughLinesRun.removeLines(warpedMat); // Remove lines from image
-        Imgcodecs.imwrite("data/images/rmv.jpg", warpedMat); // Write processed image to file
-        HoughLinesRun.outputCells(warpedMat); // Output cells from image
-        solveSudoku(solvedClone); // Solve Sudoku puzzle
+        DebugSink.stage("data/images/rmv.jpg", warpedMat); // Queue processed image to be written
+
+        CellPreprocessor cells = CellPreprocessor.forCurrentThread();
+        cells.normalize(warpedMat); // Center and scale every cell into a uniform tile
+        DebugSink.stage("data/images/cells.png", cells.buffer()); // Queue normalized tiles to be written
+        DebugSink.stageAll(cellPaths(), cells.tiles()); // Queue each tile as data/cells/cell_<n>.png (read by SudokuSolver.main)
+
+        CellReading[] readings = SudokuSolver.readCells(cells.tiles(), cells.emptyCells()); // Read cells
+        solveSudoku(solvedClone, readings); // Solve Sudoku puzzle
+    }
+
+    // Paths of the 81 cell images, row by row
+    private static List<String> cellPaths() {
+        List<String> paths = new ArrayList<>();
+        for (int i = 1; i <= 81; i++) {
+            paths.add("data/cells/cell_" + i + ".png");
+        }
+        return paths;
+    }
+
+    // Method to display a puzzle that was already solved in the background
+    public void showSpeculativeResult(SpeculativeSolver.Result result) {
+        mainPanel.remove(actionPanel);
+        mainPanel.remove(videoPanel);
+
+        pack(); // Pack components within JFrame
+
+        SudokuSolver.isPuzzleSolved = result.isSolved; // Already scored for tuning when it was solved
+        saveSolvedImage(result.solvedMat); // Save the solved image
+        refactorJFrame(result.solvedMat); // Refactor JFrame to display solved puzzle
     }
 
     // Method to solve the Sudoku puzzle
-    public void solveSudoku(Mat solvedClone) {
-        SudokuSolver.main(); // Run Sudoku solver
+    public void solveSudoku(Mat solvedClone, CellReading[] readings) {
+        SudokuSolver.loadGrid(OcrCorrector.solve(readings)); // Run Sudoku solver, fixing misread cells
         Mat solvedMat = SudokuSolver.drawSolutions(solvedClone); // Draw Sudoku solutions
+        saveSolvedImage(solvedMat); // Save the solved image
+        DetectionTuner.recordSolve(SudokuSolver.isPuzzleSolved); // Let the line removal settings learn from the result
         refactorJFrame(solvedMat); // Refactor JFrame to display solved puzzle
     }
 
+    // Save a solved image. Every page of a PDF puzzle book is part of the book's output, so it is written
+    // straight away to its own file; otherwise the solved image is a debug image.
+    private void saveSolvedImage(Mat solvedMat) {
+        if (pageNumber == 0) {
+            DebugSink.result("data/images/solved.png", solvedMat); // Queue the solved image to be saved
+            return;
+        }
+
+        String path = "data/images/solved_page_" + pageNumber + ".png";
+        try {
+            if (!Imgcodecs.imwrite(path, solvedMat)) {
+                System.out.println(pageInfo + "solved page could not be saved to " + path);
+            }
+        } catch (RuntimeException e) {
+            System.out.println(pageInfo + "solved page could not be saved to " + path + ": " + e.getMessage());
+        }
+    }
+
     // Method to refactor JFrame to display solved puzzle
     public void refactorJFrame(Mat solvedMat) {
+        // Label text indicating puzzle status
+        String status;
+        if (SudokuSolver.isPuzzleSolved) {
+            status = "<html>" + pageInfo + "Solved Sudoku Puzzle!</html>";
+        } else {
+            status = "<html>" + pageInfo + "Puzzle not solved!<br>Please try again.</html>";
+        }
+
+        refactorJFrame(solvedMat, status);
+    }
+
+    // Method to refactor JFrame to display a solved image with the given status text
+    public void refactorJFrame(Mat solvedMat, String status) {
         img = HighGui.toBufferedImage(solvedMat); // Convert Mat to BufferedImage
 
         int imgWidth = solvedMat.width();
@@ -346,12 +558,17 @@ public class SudokuStream extends JFrame {
         Dimension newScreenSize = new Dimension(imgWidth, imgHeight + 120);
         setPreferredSize(newScreenSize);
 
-        // Create label indicating puzzle status
-        if (SudokuSolver.isPuzzleSolved) {
-            solvedLabel = new JLabel("Solved Sudoku Puzzle!");
-        } else {
-            solvedLabel = new JLabel("<html>Puzzle not solved!<br>Please try again.</html>");
+        // When solving several pages, reuse the components that are already displayed
+        if (dp != null) {
+            dp.setImage(img);
+            solvedLabel.setText(status);
+
+            repaint();
+            pack();
+            return;
         }
+
+        solvedLabel = new JLabel(status);
         solvedLabel.setFont(new Font("Georgia", Font.BOLD, 40));
 
         dp = new DrawingPanel();
@@ -393,30 +610,28 @@ public class SudokuStream extends JFrame {
 
     // Method to warp input image
     public Mat warpMat(Mat img, Mat procImg) {
-        Point[] sortedPoints = HoughLinesRun.sortedPoints; // Get sorted points
-        Mat warpedMat = new Mat(procImg.height(), procImg.width(), procImg.type()); // Create new Mat
-
-        // Calculate dimensions
-        double x = sortedPoints[1].x - sortedPoints[0].x;
-        double y = sortedPoints[2].y - sortedPoints[0].y;
-
-        // Define destination points
-        MatOfPoint2f cdst = new MatOfPoint2f(
-                new Point(0,0),
-                new Point(x, 0),
-                new Point(0, y),
-                new Point(x, y)
-        );
-
-        MatOfPoint2f src = new MatOfPoint2f(sortedPoints); // Source points
-        Imgproc.warpPerspective(img, warpedMat, Imgproc.getPerspectiveTransform(src, cdst), new Size(x, y)); // Warp image
+        return HoughLinesRun.warp(img, HoughLinesRun.sortedPoints); // Warp around the sorted points
+    }
 
-        return warpedMat; // Return warped image
+    // Name of the detection profile for a webcam: its index, capture backend and resolution
+    private static String cameraProfileName(VideoCapture camera) {
+        return "camera" + ReplaySource.CAMERA_INDEX
+                + "_backend" + (int) camera.get(Videoio.CAP_PROP_BACKEND)
+                + "_" + (int) camera.get(Videoio.CAP_PROP_FRAME_WIDTH)
+                + "x" + (int) camera.get(Videoio.CAP_PROP_FRAME_HEIGHT);
     }
 
     // Method to start video capture thread
     public void startVideoThread() {
-        videoCapture = new VideoCapture(0); // Initialize VideoCapture object
+        videoCapture = ReplaySource.openDefault(); // Initialize VideoCapture object (webcam, or a replayed clip)
+
+        if (ReplaySource.REPLAY_PATH == null) {
+            // Tune detection for this camera, starting from its saved settings
+            DetectionTuner.start(cameraProfileName(videoCapture));
+        } else {
+            // Replayed clips always use the default settings, so that every run is the same
+            DetectionTuner.useDefaults();
+        }
 
         if (keepRunning) {
             try {
@@ -438,6 +653,9 @@ public class SudokuStream extends JFrame {
 
                     newFrame = HoughLinesRun.run(frame); // Process frame
 
+                    // Let the grid be solved in the background once it has been held still
+                    speculativeSolver.onFrame(frame, HoughLinesRun.foundCorners());
+
                     img = HighGui.toBufferedImage(newFrame); // Convert Mat to BufferedImage
 
                     // Update video panel with new frame